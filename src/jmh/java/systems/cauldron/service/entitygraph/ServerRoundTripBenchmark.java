@@ -0,0 +1,151 @@
+package systems.cauldron.service.entitygraph;
+
+import io.helidon.webserver.WebServer;
+import org.apache.jena.fuseki.main.FusekiServer;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+//full HTTP round trips through the server and an embedded Fuseki; keep-alive connections are reused, so connection setup is not measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerRoundTripBenchmark {
+
+    @Param({"0", "10000"})
+    private int entityCacheMaxEntries;
+
+    @Param({"1000"})
+    private int entityCount;
+
+    private Dataset dataset;
+    private FusekiServer fusekiServer;
+    private WebServer webServer;
+    private String placesUrl;
+
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setup() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setServerAddress(InetAddress.getLoopbackAddress());
+        config.setServerPort(getRandomAvailablePort());
+        config.setDatabaseAddress(InetAddress.getLoopbackAddress().getHostAddress());
+        config.setDatabasePort(getRandomAvailablePort());
+        config.setHealthPort(getRandomAvailablePort());
+        config.setEntityCacheMaxEntries(entityCacheMaxEntries);
+        dataset = DatasetFactory.createTxnMem();
+        fusekiServer = FusekiServer.create()
+                .port(config.getDatabasePort())
+                .add("/dataset", dataset)
+                .build();
+        fusekiServer.start();
+        webServer = Server.start(config);
+        while (!webServer.isRunning()) {
+            Thread.sleep(100);
+        }
+        placesUrl = config.getApiUrl() + "/places";
+        for (int i = 0; i < entityCount; i++) {
+            put(String.format("place%05d", i), i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        webServer.shutdown()
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+        fusekiServer.stop();
+        dataset.close();
+    }
+
+    @Benchmark
+    public int getEntity() throws IOException {
+        return send("GET", placesUrl + "/place00500", null);
+    }
+
+    @Benchmark
+    public int getListPage() throws IOException {
+        return send("GET", placesUrl + "?cursor=place00500&limit=100", null);
+    }
+
+    @Benchmark
+    public int putEntity() throws IOException {
+        //replaces an existing entity, so the store keeps a steady size
+        return put("place00250", 250);
+    }
+
+    private int put(String entityId, int index) throws IOException {
+        JsonObject place = Json.createObjectBuilder()
+                .add("placeId", entityId)
+                .add("name", "Place " + index)
+                .add("zipcode", 10000 + index)
+                .add("city", "City " + index)
+                .add("state", "State")
+                .add("county", "County")
+                .add("country", "Country")
+                .build();
+        return send("PUT", placesUrl + "/" + entityId, place.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int send(String method, String url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body == null) {
+            connection.setRequestProperty("Accept", "application/json");
+        } else {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        if (status >= 300) {
+            throw new IllegalStateException(String.format("%s %s returned %d", method, url, status));
+        }
+        //the body is drained and the stream closed so the connection goes back to the keep-alive cache
+        try (InputStream input = connection.getInputStream()) {
+            int length = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                length += read;
+            }
+            return length;
+        }
+    }
+
+    private static int getRandomAvailablePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
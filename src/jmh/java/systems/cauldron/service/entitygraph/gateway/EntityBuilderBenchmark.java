@@ -0,0 +1,89 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import systems.cauldron.service.entitygraph.gateway.util.EntityJsonSchema;
+import systems.cauldron.service.entitygraph.resource.EntityResourceFactory;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+//converts a trip between its JSON and RDF forms without touching a store
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityBuilderBenchmark {
+
+    private static final String ENTITY_ID = "e8c2a8f4-6f4a-4c0e-b9a5-1f6f2b7d3c11";
+
+    private static final JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(Collections.emptyMap());
+
+    private TripGraphGateway gateway;
+    private EntityJsonSchema schema;
+    private JsonObject entity;
+    private Node[] values;
+
+    @Setup
+    public void setup() {
+        gateway = new TripGraphGateway(null);
+        schema = gateway.getJsonSchema();
+        entity = Json.createObjectBuilder()
+                .add("tripId", ENTITY_ID)
+                .add("userId", "d3f7b1e2-0c5f-4a8e-9d2b-7a6c5e4f3b21")
+                .add("origin", "3dc84d15-9bd0-4aca-b11a-1aee60c9bb6b")
+                .add("destination", "cc7f75c2-0d49-4d44-8898-296268d14115")
+                .add("departureDateTime", "2019-04-06T20:21:42.000Z")
+                .add("arrivalDateTime", "2019-04-06T21:24:56.000Z")
+                .add("purpose", "business")
+                .build();
+        //the slots a read query would have filled for the same trip
+        values = new Node[schema.size()];
+        for (int i = 0; i < values.length; i++) {
+            String name = schema.getFieldName(i);
+            values[i] = name.equals("userId")
+                    ? NodeFactory.createURI(EntityResourceFactory.getEntityPath("user", entity.getString(name)))
+                    : name.equals("origin") || name.equals("destination")
+                    ? NodeFactory.createURI(EntityResourceFactory.getEntityPath("place", entity.getString(name)))
+                    : NodeFactory.createLiteral(entity.getString(name));
+        }
+    }
+
+    @Benchmark
+    public Model buildModel() {
+        return gateway.buildModel(ENTITY_ID, entity);
+    }
+
+    @Benchmark
+    public JsonObject buildJson() {
+        return schema.build(ENTITY_ID, values);
+    }
+
+    @Benchmark
+    public String writeJson() {
+        StringWriter writer = new StringWriter(512);
+        try (JsonGenerator generator = generatorFactory.createGenerator(writer)) {
+            schema.write(generator, null, ENTITY_ID, values);
+        }
+        return writer.toString();
+    }
+
+}
@@ -0,0 +1,126 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import org.apache.jena.fuseki.main.FusekiServer;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//gateway operations against an in-memory dataset, isolating query and assembly cost, and against an embedded Fuseki, adding the HTTP protocol cost
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityGatewayBenchmark {
+
+    @Param({"memory", "fuseki"})
+    private String backend;
+
+    @Param({"1000"})
+    private int entityCount;
+
+    private Dataset dataset;
+    private FusekiServer fusekiServer;
+    private GraphConnectionPool connectionPool;
+    private PlaceGraphGateway gateway;
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    @Setup
+    public void setup() throws IOException {
+        dataset = DatasetFactory.createTxnMem();
+        if (backend.equals("fuseki")) {
+            int port = getRandomAvailablePort();
+            fusekiServer = FusekiServer.create()
+                    .port(port)
+                    .add("/dataset", dataset)
+                    .build();
+            fusekiServer.start();
+            connectionPool = new RemoteGraphConnectionPool("http://localhost:" + port + "/dataset", 16, 64, 1000, 2000, 60000, 60000, 2000);
+        } else {
+            connectionPool = new DatasetGraphConnectionPool(dataset, 16, 64, 60000);
+        }
+        gateway = new PlaceGraphGateway(connectionPool);
+        gateway.setRelatedGateways(List.of(gateway));
+        List<String> entityIds = new ArrayList<>();
+        List<JsonObject> entities = new ArrayList<>();
+        for (int i = 0; i < entityCount; i++) {
+            String entityId = String.format("place%05d", i);
+            entityIds.add(entityId);
+            entities.add(createPlace(entityId, i));
+        }
+        gateway.createAll(entityIds, entities);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectionPool.close();
+        if (fusekiServer != null) {
+            fusekiServer.stop();
+        }
+        dataset.close();
+    }
+
+    @Benchmark
+    public JsonObject read() {
+        return gateway.read("place00500", Collections.emptySet()).orElseThrow();
+    }
+
+    @Benchmark
+    public byte[] listPage() {
+        return gateway.list(Optional.of("place00500"), OptionalInt.of(100), Collections.emptySet()).getBytes();
+    }
+
+    @Benchmark
+    public boolean createAndDelete() {
+        //each created entity is deleted again so the store, and the other benchmarks, keep a steady size
+        long sequence = createdCount.getAndIncrement();
+        String entityId = String.format("created%08d", sequence);
+        boolean created = gateway.create(entityId, createPlace(entityId, (int) sequence));
+        gateway.delete(entityId);
+        return created;
+    }
+
+    private static JsonObject createPlace(String entityId, int index) {
+        return Json.createObjectBuilder()
+                .add("placeId", entityId)
+                .add("name", "Place " + index)
+                .add("zipcode", 10000 + index % 90000)
+                .add("city", "City " + index)
+                .add("state", "State")
+                .add("county", "County")
+                .add("country", "Country")
+                .build();
+    }
+
+    private static int getRandomAvailablePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
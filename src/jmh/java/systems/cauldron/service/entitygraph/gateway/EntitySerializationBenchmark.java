@@ -0,0 +1,89 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import org.apache.jena.query.DatasetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import systems.cauldron.service.entitygraph.gateway.util.EntityStreamWriter;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+
+//serializes entities read from an in-memory store, so the cost measured is assembly and JSON generation; run with -prof gc for allocation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntitySerializationBenchmark {
+
+    @Param({"1000"})
+    private int entityCount;
+
+    private DatasetGraphConnectionPool connectionPool;
+    private PlaceGraphGateway gateway;
+
+    @Setup
+    public void setup() {
+        connectionPool = new DatasetGraphConnectionPool(DatasetFactory.createTxnMem(), 4, 16, 1000);
+        gateway = new PlaceGraphGateway(connectionPool);
+        gateway.setRelatedGateways(List.of(gateway));
+        List<String> entityIds = new ArrayList<>();
+        List<JsonObject> entities = new ArrayList<>();
+        for (int i = 0; i < entityCount; i++) {
+            String entityId = String.format("place%05d", i);
+            entityIds.add(entityId);
+            entities.add(Json.createObjectBuilder()
+                    .add("placeId", entityId)
+                    .add("name", "Place " + i)
+                    .add("zipcode", 10000 + i)
+                    .add("city", "City " + i)
+                    .add("state", "State")
+                    .add("county", "County")
+                    .add("country", "Country")
+                    .build());
+        }
+        gateway.createAll(entityIds, entities);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectionPool.close();
+    }
+
+    @Benchmark
+    public byte[] listPage() {
+        return gateway.list(Optional.empty(), OptionalInt.of(entityCount), Collections.emptySet()).getBytes();
+    }
+
+    @Benchmark
+    public int streamDelimited() {
+        EntityStreamWriter writer = EntityStreamWriter.delimited(OutputStream.nullOutputStream());
+        gateway.stream(Optional.empty(), OptionalInt.of(entityCount), Collections.emptySet(), writer);
+        writer.finish();
+        return writer.getCount();
+    }
+
+    @Benchmark
+    public JsonObject read() {
+        return gateway.read("place00500", Collections.emptySet()).orElseThrow();
+    }
+
+}
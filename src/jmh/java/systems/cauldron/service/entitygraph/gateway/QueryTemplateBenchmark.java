@@ -0,0 +1,125 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.update.Update;
+import org.apache.jena.update.UpdateFactory;
+import org.apache.jena.update.UpdateRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+
+//compares the prebuilt templates in EntityGraphGateway with formatting and parsing each statement per call
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryTemplateBenchmark {
+
+    private static final String NAMESPACE_PREFIX = EntityGraphGateway.NAMESPACE_PREFIX;
+    private static final String TYPE_URI = NAMESPACE_PREFIX + "trip";
+    private static final String PURPOSE_URI = NAMESPACE_PREFIX + "purpose";
+    private static final String VERSION_URI = NAMESPACE_PREFIX + "version";
+    private static final String REVISION_URI = NAMESPACE_PREFIX + "revision";
+    private static final PrefixMapping NO_PREFIXES = PrefixMapping.Factory.create().lock();
+
+    private TripGraphGateway gateway;
+    private String entityId;
+    private String entityPath;
+    private JsonObject entity;
+    private JsonObject patch;
+
+    @Setup
+    public void setup() {
+        gateway = new TripGraphGateway(null);
+        entityId = "62f4cc6e-ece1-40ea-a6f4-7605f94ac5a4";
+        entityPath = "http://api.cauldron.systems/graph/trips/" + entityId;
+        entity = Json.createObjectBuilder()
+                .add("tripId", entityId)
+                .add("userId", "tonystark")
+                .add("origin", "3dc84d15-9bd0-4aca-b11a-1aee60c9bb6b")
+                .add("destination", "cc7f75c2-0d49-4d44-8898-296268d14115")
+                .add("departureDateTime", "2019-04-06T20:21:42.000Z")
+                .add("arrivalDateTime", "2019-04-06T21:24:56.000Z")
+                .add("purpose", "business")
+                .build();
+        patch = Json.createObjectBuilder()
+                .add("purpose", "leisure")
+                .build();
+    }
+
+    @Benchmark
+    public Query readFormatted() {
+        return QueryFactory.create(String.format("SELECT ?p ?o ?ep ?eo WHERE { <%s> ?p ?o }", entityPath));
+    }
+
+    @Benchmark
+    public Query readTemplate() {
+        return gateway.getReadQuery(entityId, Collections.emptySet());
+    }
+
+    @Benchmark
+    public Query listFormatted() {
+        return QueryFactory.create(String.format("SELECT ?s ?p ?o ?ep ?eo WHERE { " +
+                        "{ SELECT ?s WHERE { ?s a <%s> FILTER ( STR(?s) > \"%s\" ) } ORDER BY ?s LIMIT 100 } " +
+                        "?s ?p ?o . FILTER ( ?p = <%suserId> || ?p = <%sdepartureDateTime> ) } ORDER BY ?s",
+                TYPE_URI, entityPath, NAMESPACE_PREFIX, NAMESPACE_PREFIX));
+    }
+
+    @Benchmark
+    public Query listTemplate() {
+        return gateway.getListQuery(Optional.of(entityId), OptionalInt.of(100), Collections.emptySet());
+    }
+
+    @Benchmark
+    public UpdateRequest createFormatted() {
+        Model model = gateway.buildModel(entityId, entity);
+        StringBuilder triples = new StringBuilder();
+        model.getGraph().find().forEachRemaining(triple -> triples.append(FmtUtils.stringForTriple(triple, NO_PREFIXES)).append(" . "));
+        model.close();
+        return UpdateFactory.create(String.format("INSERT { %s <%s> <%s> \"token\" ; <%s> 1 } WHERE { FILTER NOT EXISTS { <%s> ?p ?o } }",
+                triples, entityPath, VERSION_URI, REVISION_URI, entityPath));
+    }
+
+    @Benchmark
+    public Update createTemplate() {
+        return gateway.getCreateOperation(entityId, entity, "token");
+    }
+
+    @Benchmark
+    public UpdateRequest patchFormatted() {
+        String patchOperation = String.format("DELETE { <%s> <%s> ?o } INSERT { <%s> <%s> \"leisure\" } " +
+                        "WHERE { <%s> a <%s> OPTIONAL { <%s> <%s> ?o } }",
+                entityPath, PURPOSE_URI, entityPath, PURPOSE_URI, entityPath, TYPE_URI, entityPath, PURPOSE_URI);
+        String revisionOperation = String.format("DELETE { <%s> <%s> ?version ; <%s> ?previous } INSERT { <%s> <%s> \"token\" ; <%s> ?revision } " +
+                        "WHERE { <%s> a <%s> OPTIONAL { <%s> <%s> ?version } OPTIONAL { <%s> <%s> ?previous } BIND ( COALESCE(?previous, 0) + 1 AS ?revision ) }",
+                entityPath, VERSION_URI, REVISION_URI, entityPath, VERSION_URI, REVISION_URI,
+                entityPath, TYPE_URI, entityPath, VERSION_URI, entityPath, REVISION_URI);
+        return UpdateFactory.create(patchOperation + " ;\n" + revisionOperation);
+    }
+
+    @Benchmark
+    public UpdateRequest patchTemplate() {
+        return gateway.getPatchRequest(entityId, patch, "token");
+    }
+
+}
@@ -0,0 +1,446 @@
+package systems.cauldron.service.entitygraph;
+
+import io.helidon.webserver.WebServer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.jena.fuseki.main.FusekiServer;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import systems.cauldron.service.entitygraph.resource.EntityResourceFactory;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+import javax.json.stream.JsonGenerator;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static systems.cauldron.service.entitygraph.gateway.EntityGraphGateway.NAMESPACE_PREFIX;
+
+//open-loop load against a local server and embedded Fuseki; run "compare <baseline.json> <current.json>" to diff two saved results
+public class LoadTest {
+
+    private enum Operation {
+        GET, LIST, POST, PATCH, QUERY
+    }
+
+    private static final String[] PURPOSES = {"business", "leisure", "commute", "errand"};
+
+    private static final int SEED_BATCH_SIZE = 500;
+
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final int userCount = Integer.getInteger("loadtest.users", 100);
+    private final int placeCount = Integer.getInteger("loadtest.places", 100);
+    private final int tripCount = Integer.getInteger("loadtest.trips", 1000);
+    private final int targetRps = Integer.getInteger("loadtest.rps", 100);
+    private final int warmupSeconds = Integer.getInteger("loadtest.warmupSeconds", 10);
+    private final int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 60);
+    private final int maxOutstanding = Integer.getInteger("loadtest.maxOutstanding", 1000);
+    private final String mix = System.getProperty("loadtest.mix", "get=50,list=15,post=10,patch=15,query=10");
+    private final Path resultsDirectory = Paths.get(System.getProperty("loadtest.results", "build/reports/loadtest"))
+            .resolve(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+
+    private final Random random = new Random(Long.getLong("loadtest.seed", 42));
+    private final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private int totalWeight;
+
+    private final List<String> userIds = new ArrayList<>();
+    private final List<String> placeIds = new ArrayList<>();
+    private final List<String> tripIds = new ArrayList<>();
+
+    private HttpClient client;
+    private String apiUrl;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("compare")) {
+            compare(Paths.get(args[1]), Paths.get(args[2]), System.out);
+            return;
+        }
+        new LoadTest().run();
+    }
+
+    private void run() throws Exception {
+        parseMix();
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(MAX_LATENCY_NANOS, 3));
+            errors.put(operation, new AtomicLong());
+        }
+
+        ServerConfig config = new ServerConfig();
+        config.setServerAddress(InetAddress.getLocalHost());
+        config.setServerPort(getRandomAvailablePort());
+        config.setDatabaseAddress(InetAddress.getLocalHost().getHostAddress());
+        config.setDatabasePort(getRandomAvailablePort());
+        config.setHealthPort(getRandomAvailablePort());
+        apiUrl = config.getApiUrl();
+
+        Dataset dataset = DatasetFactory.createTxnMem();
+        FusekiServer fusekiServer = FusekiServer.create()
+                .port(config.getDatabasePort())
+                .add("/dataset", dataset)
+                .build();
+        fusekiServer.start();
+        WebServer webServer = Server.start(config);
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            while (!webServer.isRunning()) {
+                Thread.sleep(100);
+            }
+            client = HttpClient.newBuilder()
+                    .executor(clientExecutor)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            seed();
+
+            drive(warmupSeconds);
+            //the warm-up interval is read and discarded, so measurement starts from empty histograms
+            recorders.values().forEach(Recorder::getIntervalHistogram);
+            errors.values().forEach(count -> count.set(0));
+            delayed.set(0);
+
+            long startNanos = System.nanoTime();
+            drive(durationSeconds);
+            awaitOutstanding();
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+            Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+            recorders.forEach((operation, recorder) -> histograms.put(operation, recorder.getIntervalHistogram()));
+            save(histograms, elapsedSeconds);
+        } finally {
+            webServer.shutdown()
+                    .toCompletableFuture()
+                    .get(30, TimeUnit.SECONDS);
+            fusekiServer.stop();
+            dataset.close();
+            clientExecutor.shutdown();
+        }
+    }
+
+    private void parseMix() {
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("malformed loadtest.mix entry: " + entry);
+            }
+            weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("loadtest.mix needs at least one positive weight");
+        }
+    }
+
+    private void seed() throws Exception {
+        List<JsonObject> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            String userId = UUID.randomUUID().toString();
+            userIds.add(userId);
+            users.add(Json.createObjectBuilder()
+                    .add("userId", userId)
+                    .add("name", "User " + i)
+                    .build());
+        }
+        List<JsonObject> places = new ArrayList<>();
+        for (int i = 0; i < placeCount; i++) {
+            String placeId = UUID.randomUUID().toString();
+            placeIds.add(placeId);
+            places.add(createPlace(placeId, i));
+        }
+        List<JsonObject> trips = new ArrayList<>();
+        for (int i = 0; i < tripCount; i++) {
+            String tripId = UUID.randomUUID().toString();
+            tripIds.add(tripId);
+            trips.add(Json.createObjectBuilder()
+                    .add("tripId", tripId)
+                    .add("userId", pick(userIds))
+                    .add("origin", pick(placeIds))
+                    .add("destination", pick(placeIds))
+                    .add("departureDateTime", String.format("2019-04-%02dT08:%02d:00.000Z", 1 + i % 28, i % 60))
+                    .add("arrivalDateTime", String.format("2019-04-%02dT09:%02d:00.000Z", 1 + i % 28, i % 60))
+                    .add("purpose", pick(PURPOSES))
+                    .build());
+        }
+        seed("users", users);
+        seed("places", places);
+        seed("trips", trips);
+        //list cursors are compared in id order, so the seeded ids are kept sorted
+        tripIds.sort(String::compareTo);
+    }
+
+    private void seed(String entityTypePlural, List<JsonObject> entities) throws Exception {
+        for (int from = 0; from < entities.size(); from += SEED_BATCH_SIZE) {
+            JsonArrayBuilder batch = Json.createArrayBuilder();
+            entities.subList(from, Math.min(from + SEED_BATCH_SIZE, entities.size())).forEach(batch::add);
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(apiUrl + "/" + entityTypePlural + ":batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(batch.build().toString()))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(String.format("seeding %s failed with status %d", entityTypePlural, response.statusCode()));
+            }
+        }
+    }
+
+    private void drive(int seconds) {
+        //requests are issued on a fixed schedule whether or not earlier ones have completed, and latency is measured
+        //from the scheduled time, so a stalled server shows up as latency instead of as a lower request rate
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / targetRps;
+        long requestCount = (long) targetRps * seconds;
+        long startNanos = System.nanoTime();
+        for (long i = 0; i < requestCount; i++) {
+            long scheduledNanos = startNanos + i * intervalNanos;
+            long waitNanos = scheduledNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            Operation operation = pickOperation();
+            if (outstanding.incrementAndGet() > maxOutstanding) {
+                //over the limit a request waits for a slot instead of being skipped, and the wait still counts as its latency
+                delayed.incrementAndGet();
+                while (outstanding.get() > maxOutstanding) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                }
+            }
+            send(operation, scheduledNanos);
+        }
+    }
+
+    private void send(Operation operation, long scheduledNanos) {
+        HttpRequest request = createRequest(operation);
+        CompletableFuture<HttpResponse<Void>> responseFuture = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        responseFuture.whenComplete((response, ex) -> {
+            long latencyNanos = System.nanoTime() - scheduledNanos;
+            outstanding.decrementAndGet();
+            if (ex != null || response.statusCode() >= 400) {
+                errors.get(operation).incrementAndGet();
+            } else {
+                recorders.get(operation).recordValue(Math.min(latencyNanos, MAX_LATENCY_NANOS));
+            }
+        });
+    }
+
+    private HttpRequest createRequest(Operation operation) {
+        switch (operation) {
+            case GET:
+                return HttpRequest.newBuilder(URI.create(apiUrl + "/trips/" + pick(tripIds)))
+                        .header("Accept", "application/json")
+                        .GET()
+                        .build();
+            case LIST:
+                return HttpRequest.newBuilder(URI.create(apiUrl + "/trips?cursor=" + pick(tripIds) + "&limit=50"))
+                        .header("Accept", "application/json")
+                        .GET()
+                        .build();
+            case POST:
+                String placeId = UUID.randomUUID().toString();
+                return HttpRequest.newBuilder(URI.create(apiUrl + "/places"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(createPlace(placeId, random.nextInt(90000)).toString()))
+                        .build();
+            case PATCH:
+                return HttpRequest.newBuilder(URI.create(apiUrl + "/trips/" + pick(tripIds)))
+                        .header("Content-Type", "application/json")
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString(Json.createObjectBuilder()
+                                .add("purpose", pick(PURPOSES))
+                                .build()
+                                .toString()))
+                        .build();
+            default:
+                String query = String.format("SELECT ?trip ?destination WHERE { ?trip <%suserId> <%s> ; <%sdestination> ?destination } LIMIT 100",
+                        NAMESPACE_PREFIX, EntityResourceFactory.getEntityPath("user", pick(userIds)), NAMESPACE_PREFIX);
+                return HttpRequest.newBuilder(URI.create(apiUrl + "/query"))
+                        .header("Content-Type", "application/sparql-query")
+                        .header("Accept", "application/sparql-results+json")
+                        .POST(HttpRequest.BodyPublishers.ofString(query))
+                        .build();
+        }
+    }
+
+    private void awaitOutstanding() throws InterruptedException {
+        long deadline = System.nanoTime() + MAX_LATENCY_NANOS;
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void save(Map<Operation, Histogram> histograms, double elapsedSeconds) throws IOException {
+        Files.createDirectories(resultsDirectory);
+        Histogram total = new Histogram(MAX_LATENCY_NANOS, 3);
+        long totalErrors = 0;
+        JsonObjectBuilder operations = Json.createObjectBuilder();
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = histograms.get(operation);
+            long errorCount = errors.get(operation).get();
+            if (histogram.getTotalCount() == 0 && errorCount == 0) {
+                continue;
+            }
+            total.add(histogram);
+            totalErrors += errorCount;
+            operations.add(operation.name().toLowerCase(), summarize(histogram, errorCount, elapsedSeconds));
+            //the full distribution in HdrHistogram's percentile format, for plotting or a closer diff
+            try (PrintStream output = new PrintStream(Files.newOutputStream(resultsDirectory.resolve(operation.name().toLowerCase() + ".hgrm")),
+                    false, StandardCharsets.UTF_8)) {
+                histogram.outputPercentileDistribution(output, 1e6);
+            }
+        }
+        JsonObject results = Json.createObjectBuilder()
+                .add("config", Json.createObjectBuilder()
+                        .add("users", userCount)
+                        .add("places", placeCount)
+                        .add("trips", tripCount)
+                        .add("targetRps", targetRps)
+                        .add("durationSeconds", durationSeconds)
+                        .add("mix", mix))
+                .add("elapsedSeconds", elapsedSeconds)
+                .add("delayed", delayed.get())
+                .add("total", summarize(total, totalErrors, elapsedSeconds))
+                .add("operations", operations)
+                .build();
+        Path resultsPath = resultsDirectory.resolve("results.json");
+        JsonWriterFactory writerFactory = Json.createWriterFactory(Map.of(JsonGenerator.PRETTY_PRINTING, true));
+        try (Writer writer = Files.newBufferedWriter(resultsPath, StandardCharsets.UTF_8);
+             JsonWriter jsonWriter = writerFactory.createWriter(writer)) {
+            jsonWriter.writeObject(results);
+        }
+        print(results, System.out);
+        System.out.println("results saved to " + resultsPath.toAbsolutePath());
+    }
+
+    private static JsonObjectBuilder summarize(Histogram histogram, long errorCount, double elapsedSeconds) {
+        //latencies are reported in milliseconds
+        return Json.createObjectBuilder()
+                .add("count", histogram.getTotalCount())
+                .add("errors", errorCount)
+                .add("throughput", histogram.getTotalCount() / elapsedSeconds)
+                .add("mean", histogram.getMean() / 1e6)
+                .add("p50", histogram.getValueAtPercentile(50) / 1e6)
+                .add("p90", histogram.getValueAtPercentile(90) / 1e6)
+                .add("p99", histogram.getValueAtPercentile(99) / 1e6)
+                .add("p999", histogram.getValueAtPercentile(99.9) / 1e6)
+                .add("max", histogram.getMaxValue() / 1e6);
+    }
+
+    private static void print(JsonObject results, PrintStream output) {
+        output.printf("%-8s %10s %8s %10s %10s %10s %10s %10s%n", "", "count", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        JsonObject operations = results.getJsonObject("operations");
+        operations.keySet().forEach(name -> printRow(name, operations.getJsonObject(name), output));
+        printRow("total", results.getJsonObject("total"), output);
+        output.printf("delayed %d requests over the outstanding limit%n", results.getJsonNumber("delayed").longValue());
+    }
+
+    private static void printRow(String name, JsonObject summary, PrintStream output) {
+        output.printf("%-8s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n", name,
+                summary.getJsonNumber("count").longValue(),
+                summary.getJsonNumber("errors").longValue(),
+                summary.getJsonNumber("throughput").doubleValue(),
+                summary.getJsonNumber("p50").doubleValue(),
+                summary.getJsonNumber("p99").doubleValue(),
+                summary.getJsonNumber("p999").doubleValue(),
+                summary.getJsonNumber("max").doubleValue());
+    }
+
+    private static void compare(Path baselinePath, Path currentPath, PrintStream output) throws IOException {
+        JsonObject baseline = readResults(baselinePath);
+        JsonObject current = readResults(currentPath);
+        output.printf("%-8s %-10s %12s %12s %9s%n", "", "", "baseline", "current", "change");
+        JsonObject baselineOperations = baseline.getJsonObject("operations");
+        JsonObject currentOperations = current.getJsonObject("operations");
+        for (String name : currentOperations.keySet()) {
+            if (baselineOperations.containsKey(name)) {
+                compareRow(name, baselineOperations.getJsonObject(name), currentOperations.getJsonObject(name), output);
+            }
+        }
+        compareRow("total", baseline.getJsonObject("total"), current.getJsonObject("total"), output);
+    }
+
+    private static void compareRow(String name, JsonObject baseline, JsonObject current, PrintStream output) {
+        for (String metric : List.of("throughput", "p50", "p99", "p999", "max")) {
+            double before = baseline.getJsonNumber(metric).doubleValue();
+            double after = current.getJsonNumber(metric).doubleValue();
+            output.printf("%-8s %-10s %12.2f %12.2f %+8.1f%%%n", name, metric, before, after, before == 0 ? 0 : (after - before) * 100 / before);
+        }
+    }
+
+    private static JsonObject readResults(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+             JsonReader jsonReader = Json.createReader(reader)) {
+            return jsonReader.readObject();
+        }
+    }
+
+    private Operation pickOperation() {
+        int value = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private <T> T pick(List<T> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private <T> T pick(T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static JsonObject createPlace(String placeId, int index) {
+        return Json.createObjectBuilder()
+                .add("placeId", placeId)
+                .add("name", "Place " + index)
+                .add("zipcode", 10000 + index % 90000)
+                .add("city", "City " + index)
+                .add("state", "State")
+                .add("county", "County")
+                .add("country", "Country")
+                .build();
+    }
+
+    private static int getRandomAvailablePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -4,10 +4,16 @@ open module systems.cauldron.service.graphql {
     requires io.helidon.webserver.jersey;
     requires io.helidon.health;
     requires io.helidon.health.checks;
+    requires micrometer.core;
+    requires micrometer.registry.prometheus;
     requires java.json;
     requires java.logging;
+    requires org.apache.jena.base;
     requires org.apache.jena.core;
     requires org.apache.jena.arq;
     requires org.apache.jena.rdfconnection;
+    requires org.apache.jena.tdb2;
+    requires org.apache.httpcomponents.httpclient;
+    requires org.apache.httpcomponents.httpcore;
     exports systems.cauldron.service.entitygraph;
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package systems.cauldron.service.entitygraph;
 
+import io.helidon.common.http.ContextualRegistry;
+import io.helidon.common.http.MediaType;
 import io.helidon.health.HealthSupport;
 import io.helidon.health.checks.HealthChecks;
 import io.helidon.media.jsonp.server.JsonSupport;
@@ -8,39 +10,144 @@ import io.helidon.webserver.ServerConfiguration;
 import io.helidon.webserver.SocketConfiguration;
 import io.helidon.webserver.WebServer;
 import io.helidon.webserver.jersey.JerseySupport;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ClassLoaderMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.binder.system.UptimeMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.apache.http.pool.PoolStats;
 import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
+import systems.cauldron.service.entitygraph.gateway.CircuitBreaker;
+import systems.cauldron.service.entitygraph.gateway.DatasetGraphConnectionPool;
+import systems.cauldron.service.entitygraph.gateway.EntityGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.GraphConnectionPool;
+import systems.cauldron.service.entitygraph.gateway.PlaceGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.RemoteGraphConnectionPool;
+import systems.cauldron.service.entitygraph.gateway.ReplicaSet;
+import systems.cauldron.service.entitygraph.gateway.TraversalGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.TripGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.UserGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.WriteBehindQueue;
+import systems.cauldron.service.entitygraph.gateway.util.ChangeFeed;
+import systems.cauldron.service.entitygraph.gateway.util.EntityCache;
+import systems.cauldron.service.entitygraph.gateway.util.QueryResultCache;
+import systems.cauldron.service.entitygraph.gateway.util.QueryStatistics;
+import systems.cauldron.service.entitygraph.gateway.util.TraceLog;
+import systems.cauldron.service.entitygraph.resource.ChangeFeedResource;
 import systems.cauldron.service.entitygraph.resource.CorsFilter;
 import systems.cauldron.service.entitygraph.resource.EntityResourceFactory;
 import systems.cauldron.service.entitygraph.resource.QueryResource;
+import systems.cauldron.service.entitygraph.resource.ReadYourWritesFilter;
+import systems.cauldron.service.entitygraph.resource.RequestMetricsFilter;
+import systems.cauldron.service.entitygraph.resource.RequestTimingFilter;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class Server {
 
+    private static final MediaType PROMETHEUS_TEXT = MediaType.parse("text/plain; version=0.0.4; charset=utf-8");
+
     public static void main(final String[] args) throws IOException {
         ServerConfig config = new ServerConfig();
         config.setServerAddress(InetAddress.getLocalHost());
         config.setServerPort(8080);
         config.setDatabaseAddress("fuseki-docker");
         config.setDatabasePort(3030);
+        config.setDatabaseDirectory(System.getenv("DATABASE_DIRECTORY"));
+        Optional.ofNullable(System.getenv("TRACE_SAMPLE_RATE"))
+                .map(Double::parseDouble)
+                .ifPresent(config::setTraceSampleRate);
+        Optional.ofNullable(System.getenv("DATABASE_REPLICA_URLS"))
+                .map(urls -> List.of(urls.split(",")))
+                .ifPresent(config::setDatabaseReplicaUrls);
+        Optional.ofNullable(System.getenv("WRITE_BEHIND_ENTITY_TYPES"))
+                .map(types -> Set.of(types.split(",")))
+                .ifPresent(config::setWriteBehindEntityTypes);
         config.setHealthPort(8081);
-        start(config);
+        WebServer server = start(config);
+        //Helidon registers no shutdown hook of its own, so without this a SIGTERM would skip draining accepted writes
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.shutdown().toCompletableFuture().join();
+            } catch (CompletionException ex) {
+                Logger.getGlobal().log(Level.SEVERE, "exception while shutting down", ex);
+            }
+        }, "shutdown"));
     }
 
     static WebServer start(ServerConfig config) throws IOException {
         Logger logger = setupLogger();
-        WebServer server = WebServer.builder(getRouting(config.getDatabaseUrl(), logger))
+        GraphConnectionPool connectionPool = getConnectionPool(config);
+        connectionPool.setCircuitBreaker(getCircuitBreaker(config));
+        EntityCache entityCache = new EntityCache(config.getEntityCacheMaxEntries(), config.getEntityCacheTtlMillis());
+        QueryStatistics queryStatistics = new QueryStatistics();
+        //a zero byte bound turns the query result cache off
+        QueryResultCache queryCache = config.getQueryCacheMaxBytes() > 0
+                ? new QueryResultCache(config.getQueryCacheMaxBytes(), config.getQueryCacheMaxEntryBytes(), config.getQueryCacheTtlMillis())
+                : null;
+        ChangeFeed changeFeed = new ChangeFeed(config.getChangeFeedCapacity(), config.getChangeFeedMaxSubscribers(), config.isChangeFeedIncludeEntities());
+        List<EntityGraphGateway> gateways = getGateways(config, connectionPool, entityCache, queryCache, changeFeed);
+        List<WriteBehindQueue> writeBehindQueues = getWriteBehindQueues(config, gateways);
+        //a zero sample rate writes no trace records; Server-Timing headers are independent of it
+        TraceLog traceLog = config.getTraceSampleRate() > 0
+                ? new TraceLog(Paths.get(config.getTraceFile()), config.getTraceSampleRate(), config.getTraceMaxQueuedRecords())
+                : null;
+        ExecutorService responseExecutor = getResponseExecutor(config);
+        PrometheusMeterRegistry meterRegistry = getMeterRegistry(connectionPool, changeFeed, responseExecutor, traceLog);
+        connectionPool.setMeterRegistry(meterRegistry);
+        TraversalGraphGateway traversalGateway = new TraversalGraphGateway(connectionPool, gateways,
+                config.getTraversalMaxDepth(), config.getTraversalMaxNodes(), config.getTraversalFrontierBatchSize());
+        WebServer server = WebServer.builder(getRouting(config, gateways, traversalGateway, responseExecutor, meterRegistry, traceLog, logger))
                 .config(getConfig(config))
-                .addNamedRouting("health", getHealthRouting())
+                .addNamedRouting("health", getHealthRouting(config, connectionPool, entityCache, queryStatistics, queryCache, changeFeed,
+                        writeBehindQueues, meterRegistry))
                 .build();
-        server.context().register("databaseUrl", config.getDatabaseUrl());
-        server.start().thenAccept(ws -> logger.log(Level.INFO, "server started @ " + config.getServerUrl()));
-        server.whenShutdown().thenRun(() -> logger.log(Level.INFO, "server stopped"));
-        return server;
+        server.context().register(config);
+        server.context().register(connectionPool);
+        server.context().register(queryStatistics);
+        server.context().register(changeFeed);
+        if (queryCache != null) {
+            server.context().register(queryCache);
+        }
+        WebServer drainingServer = new DrainingWebServer(server, () -> {
+            //accepted writes are flushed while the connection pool is still open
+            writeBehindQueues.forEach(queue -> queue.close(config.getWriteBehindShutdownTimeoutMillis()));
+            changeFeed.close();
+            connectionPool.close();
+            responseExecutor.shutdown();
+            if (traceLog != null) {
+                traceLog.close();
+            }
+            logger.log(Level.INFO, "server stopped");
+        });
+        drainingServer.start().thenAccept(ws -> logger.log(Level.INFO, "server started @ " + config.getServerUrl()));
+        return drainingServer;
     }
 
     private static Logger setupLogger() throws IOException {
@@ -57,26 +164,258 @@ public class Server {
                 .build();
     }
 
-    private static Routing getHealthRouting() {
-        //TODO: implement a true database connectivity check
+    private static GraphConnectionPool getConnectionPool(ServerConfig config) {
+        //a configured directory selects an embedded TDB2 store owned by this process instead of a remote Fuseki
+        if (config.getDatabaseDirectory() != null) {
+            return DatasetGraphConnectionPool.createTDB2(
+                    config.getDatabaseDirectory(),
+                    config.getDatabaseMaxConnections(),
+                    config.getDatabaseMaxQueuedRequests(),
+                    config.getDatabaseIdleTimeoutMillis());
+        }
+        RemoteGraphConnectionPool connectionPool = new RemoteGraphConnectionPool(
+                config.getDatabaseUrl(),
+                config.getDatabaseMaxConnections(),
+                config.getDatabaseMaxQueuedRequests(),
+                config.getDatabaseAcquireTimeoutMillis(),
+                config.getDatabaseConnectTimeoutMillis(),
+                config.getDatabaseSocketTimeoutMillis(),
+                config.getDatabaseIdleTimeoutMillis(),
+                config.getDatabaseValidateAfterInactivityMillis());
+        //writes always go to the configured database; replicas, when there are any, serve reads
+        if (!config.getDatabaseReplicaUrls().isEmpty()) {
+            connectionPool.setReplicaSet(new ReplicaSet(
+                    config.getDatabaseReplicaUrls(),
+                    config.getReadYourWritesMillis(),
+                    config.isHedgedReads(),
+                    config.getHedgeMinDelayMillis(),
+                    config.getDatabaseMaxConnections(),
+                    () -> getCircuitBreaker(config)));
+        }
+        return connectionPool;
+    }
+
+    private static CircuitBreaker getCircuitBreaker(ServerConfig config) {
+        return new CircuitBreaker(
+                config.getCircuitBreakerWindowSize(),
+                config.getCircuitBreakerMinimumCalls(),
+                config.getCircuitBreakerFailureRateThreshold(),
+                config.getCircuitBreakerSlowCallMillis(),
+                config.getCircuitBreakerSlowCallRateThreshold(),
+                config.getCircuitBreakerOpenMillis(),
+                config.getCircuitBreakerHalfOpenCalls());
+    }
+
+    private static List<EntityGraphGateway> getGateways(ServerConfig config, GraphConnectionPool connectionPool, EntityCache entityCache, QueryResultCache queryCache,
+                                                         ChangeFeed changeFeed) {
+        List<EntityGraphGateway> gateways = List.of(
+                new UserGraphGateway(connectionPool),
+                new PlaceGraphGateway(connectionPool),
+                new TripGraphGateway(connectionPool));
+        gateways.forEach(gateway -> gateway.setRelatedGateways(gateways));
+        gateways.stream()
+                .filter(gateway -> config.getCachedEntityTypes().contains(gateway.getEntityType()))
+                .forEach(gateway -> gateway.setCache(entityCache));
+        gateways.forEach(gateway -> gateway.setQueryCache(queryCache));
+        gateways.forEach(gateway -> gateway.setChangeFeed(changeFeed));
+        return gateways;
+    }
+
+    private static List<WriteBehindQueue> getWriteBehindQueues(ServerConfig config, List<EntityGraphGateway> gateways) {
+        return gateways.stream()
+                .filter(gateway -> config.getWriteBehindEntityTypes().contains(gateway.getEntityType()))
+                .map(gateway -> {
+                    WriteBehindQueue queue = new WriteBehindQueue(gateway,
+                            Paths.get(config.getWriteBehindJournalDirectory()),
+                            config.getWriteBehindMaxQueuedWrites(),
+                            config.getWriteBehindMaxBatchSize(),
+                            config.getWriteBehindMaxDelayMillis(),
+                            config.getWriteBehindAwaitTimeoutMillis());
+                    gateway.setWriteBehindQueue(queue);
+                    return queue;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static ExecutorService getResponseExecutor(ServerConfig config) {
+        //bulky responses are written from here, so a slow client holds one of these threads rather than a graph-io one
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(config.getResponseWriterThreads(), config.getResponseWriterThreads(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getResponseWriterMaxQueuedResponses()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "response-writer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static PrometheusMeterRegistry getMeterRegistry(GraphConnectionPool connectionPool, ChangeFeed changeFeed,
+                                                            ExecutorService responseExecutor, TraceLog traceLog) {
+        PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        new JvmMemoryMetrics().bindTo(meterRegistry);
+        new JvmGcMetrics().bindTo(meterRegistry);
+        new JvmThreadMetrics().bindTo(meterRegistry);
+        new ClassLoaderMetrics().bindTo(meterRegistry);
+        new ProcessorMetrics().bindTo(meterRegistry);
+        new UptimeMetrics().bindTo(meterRegistry);
+        //the pools requests wait on, so saturation shows up as queueing before it shows up as latency
+        new ExecutorServiceMetrics(connectionPool.getExecutor(), "graph-io", Tags.empty()).bindTo(meterRegistry);
+        new ExecutorServiceMetrics(changeFeed.getSubscriberExecutor(), "change-feed", Tags.empty()).bindTo(meterRegistry);
+        new ExecutorServiceMetrics(responseExecutor, "response-writer", Tags.empty()).bindTo(meterRegistry);
+        bindPoolGauge(meterRegistry, connectionPool, "leased", pool -> pool.getStats().getLeased());
+        bindPoolGauge(meterRegistry, connectionPool, "available", pool -> pool.getStats().getAvailable());
+        bindPoolGauge(meterRegistry, connectionPool, "pending", pool -> pool.getStats().getPending());
+        bindPoolGauge(meterRegistry, connectionPool, "max", pool -> pool.getStats().getMax());
+        connectionPool.getCircuitBreaker().ifPresent(circuitBreaker -> {
+            Gauge.builder("graph.store.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                    .description("Graph store circuit state: 0 closed, 1 half-open, 2 open")
+                    .register(meterRegistry);
+            FunctionCounter.builder("graph.store.circuit.rejected", circuitBreaker, CircuitBreaker::getRejectedCount)
+                    .description("Calls failed fast while the graph store circuit was open")
+                    .register(meterRegistry);
+        });
+        getReplicaSet(connectionPool).ifPresent(replicaSet -> {
+            replicaSet.getReplicas().forEach(replica -> Gauge
+                    .builder("graph.store.replica.outstanding", replica, ReplicaSet.Replica::getOutstandingRequests)
+                    .description("Reads in flight to each graph store replica")
+                    .tag("endpoint", replica.getName())
+                    .register(meterRegistry));
+            FunctionCounter.builder("graph.store.hedged", replicaSet, ReplicaSet::getHedgedCount)
+                    .description("Replica reads that were sent to a second replica after the hedge delay")
+                    .register(meterRegistry);
+            FunctionCounter.builder("graph.store.hedged.won", replicaSet, ReplicaSet::getHedgeWonCount)
+                    .description("Hedged reads answered first by the second replica")
+                    .register(meterRegistry);
+        });
+        if (traceLog != null) {
+            FunctionCounter.builder("trace.records.written", traceLog, TraceLog::getWrittenCount)
+                    .description("Sampled request trace records written")
+                    .register(meterRegistry);
+            FunctionCounter.builder("trace.records.dropped", traceLog, TraceLog::getDroppedCount)
+                    .description("Sampled request trace records dropped because the writer fell behind")
+                    .register(meterRegistry);
+        }
+        return meterRegistry;
+    }
+
+    private static Optional<ReplicaSet> getReplicaSet(GraphConnectionPool connectionPool) {
+        return connectionPool instanceof RemoteGraphConnectionPool
+                ? ((RemoteGraphConnectionPool) connectionPool).getReplicaSet()
+                : Optional.empty();
+    }
+
+    private static void bindPoolGauge(MeterRegistry meterRegistry, GraphConnectionPool connectionPool, String state,
+                                      ToDoubleFunction<GraphConnectionPool> value) {
+        Gauge.builder("graph.store.connections", connectionPool, value)
+                .description("Graph store connections by state")
+                .tag("state", state)
+                .register(meterRegistry);
+    }
+
+    private static Routing getHealthRouting(ServerConfig config, GraphConnectionPool connectionPool, EntityCache entityCache,
+                                            QueryStatistics queryStatistics, QueryResultCache queryCache, ChangeFeed changeFeed,
+                                            List<WriteBehindQueue> writeBehindQueues, PrometheusMeterRegistry meterRegistry) {
         return Routing.builder()
                 .register(JsonSupport.create())
+                .get("/metrics", (req, res) -> {
+                    res.headers().contentType(PROMETHEUS_TEXT);
+                    res.send(meterRegistry.scrape());
+                })
                 .register(HealthSupport.builder()
                         .webContext("/live")
                         .add(HealthChecks.healthChecks())
                         .build())
                 .register(HealthSupport.builder()
                         .webContext("/ready")
-                        .add(() -> HealthCheckResponse.named("database").up().build())
+                        .add(() -> {
+                            //a replica that cannot reach the store reports down, so it stops receiving traffic until the probe succeeds again
+                            long startNanos = System.nanoTime();
+                            boolean reachable = connectionPool.isReachable(config.getReadinessTimeoutMillis());
+                            HealthCheckResponseBuilder builder = HealthCheckResponse.named("database")
+                                    .withData("reachable", reachable)
+                                    .withData("probeMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                            connectionPool.getCircuitBreaker().ifPresent(circuitBreaker -> builder
+                                    .withData("circuit", circuitBreaker.getState().name())
+                                    .withData("circuitOpened", circuitBreaker.getOpenedCount())
+                                    .withData("circuitRejected", circuitBreaker.getRejectedCount()));
+                            getReplicaSet(connectionPool).ifPresent(replicaSet -> builder
+                                    .withData("replicas", replicaSet.getReplicas().size())
+                                    .withData("replicasAvailable", replicaSet.getReplicas().stream().filter(ReplicaSet.Replica::isAvailable).count()));
+                            return builder.state(reachable).build();
+                        })
+                        .add(() -> {
+                            PoolStats stats = connectionPool.getStats();
+                            return HealthCheckResponse.named("databaseConnectionPool")
+                                    .withData("leased", stats.getLeased())
+                                    .withData("available", stats.getAvailable())
+                                    .withData("pending", stats.getPending())
+                                    .withData("max", stats.getMax())
+                                    .withData("queued", connectionPool.getQueuedRequests())
+                                    .up()
+                                    .build();
+                        })
+                        .add(() -> HealthCheckResponse.named("entityCache")
+                                .withData("size", entityCache.size())
+                                .withData("hits", entityCache.getHitCount())
+                                .withData("misses", entityCache.getMissCount())
+                                .withData("evictions", entityCache.getEvictionCount())
+                                .up()
+                                .build())
+                        .add(() -> HealthCheckResponse.named("query")
+                                .withData("completed", queryStatistics.getCompletedCount())
+                                .withData("timedOut", queryStatistics.getTimedOutCount())
+                                .withData("rowCapped", queryStatistics.getRowCappedCount())
+                                .withData("cancelled", queryStatistics.getCancelledCount())
+                                .withData("failed", queryStatistics.getFailedCount())
+                                .up()
+                                .build())
+                        .add(() -> {
+                            HealthCheckResponseBuilder builder = HealthCheckResponse.named("queryCache")
+                                    .withData("enabled", queryCache != null);
+                            if (queryCache != null) {
+                                builder.withData("entries", queryCache.getEntryCount())
+                                        .withData("bytes", queryCache.getSizeBytes())
+                                        .withData("hits", queryCache.getHitCount())
+                                        .withData("misses", queryCache.getMissCount())
+                                        .withData("evictions", queryCache.getEvictionCount());
+                            }
+                            return builder.up().build();
+                        })
+                        .add(() -> {
+                            HealthCheckResponseBuilder builder = HealthCheckResponse.named("writeBehind")
+                                    .withData("enabled", !writeBehindQueues.isEmpty());
+                            for (WriteBehindQueue queue : writeBehindQueues) {
+                                String prefix = queue.getEntityType() + ".";
+                                builder.withData(prefix + "queued", queue.getQueuedCount())
+                                        .withData(prefix + "flushed", queue.getFlushedCount())
+                                        .withData(prefix + "rejected", queue.getRejectedCount())
+                                        .withData(prefix + "failedFlushes", queue.getFailedFlushCount());
+                            }
+                            return builder.up().build();
+                        })
+                        .add(() -> HealthCheckResponse.named("changeFeed")
+                                .withData("firstOffset", changeFeed.getFirstOffset())
+                                .withData("nextOffset", changeFeed.getNextOffset())
+                                .withData("subscribers", changeFeed.getSubscriberCount())
+                                .up()
+                                .build())
                         .build())
                 .build();
     }
 
-    private static Routing getRouting(String graphEndpointUrl, Logger logger) {
+    private static Routing getRouting(ServerConfig config, List<EntityGraphGateway> gateways, TraversalGraphGateway traversalGateway,
+                                      ExecutorService responseExecutor, MeterRegistry meterRegistry, TraceLog traceLog, Logger logger) {
         JerseySupport.Builder graphApi = JerseySupport.builder()
                 .register(CorsFilter.class)
+                .register(new RequestMetricsFilter(meterRegistry))
+                .register(new RequestTimingFilter(config.isServerTimingEnabled(), traceLog))
+                .register(ReadYourWritesFilter.class)
                 .register(QueryResource.class)
-                .registerResources(EntityResourceFactory.getResources(logger, graphEndpointUrl));
+                .register(ChangeFeedResource.class)
+                .registerResources(EntityResourceFactory.getResources(logger, gateways, traversalGateway, responseExecutor, config.getBatchChunkSize()));
         return Routing.builder()
                 .register(JsonSupport.create())
                 .any("/", (req, res) -> res.status(200).send())
@@ -84,5 +423,57 @@ public class Server {
                 .build();
     }
 
+    private static class DrainingWebServer implements WebServer {
+
+        private final WebServer server;
+        private final CompletionStage<WebServer> drained;
+
+        private DrainingWebServer(WebServer server, Runnable drain) {
+            this.server = server;
+            //the shutdown future completes only once the drain has, so callers never see the server stopped with writes in flight
+            this.drained = server.whenShutdown().thenApply(ws -> {
+                drain.run();
+                return this;
+            });
+        }
+
+        @Override
+        public ServerConfiguration configuration() {
+            return server.configuration();
+        }
+
+        @Override
+        public CompletionStage<WebServer> start() {
+            return server.start().thenApply(ws -> this);
+        }
+
+        @Override
+        public CompletionStage<WebServer> whenShutdown() {
+            return drained;
+        }
+
+        @Override
+        public CompletionStage<WebServer> shutdown() {
+            server.shutdown();
+            return drained;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return server.isRunning();
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public ContextualRegistry context() {
+            return server.context();
+        }
+
+        @Override
+        public int port(String socketName) {
+            return server.port(socketName);
+        }
+    }
+
 
 }
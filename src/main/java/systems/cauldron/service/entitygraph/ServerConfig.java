@@ -1,6 +1,8 @@
 package systems.cauldron.service.entitygraph;
 
 import java.net.InetAddress;
+import java.util.List;
+import java.util.Set;
 
 public class ServerConfig {
 
@@ -8,7 +10,56 @@ public class ServerConfig {
     private int serverPort;
     private String databaseAddress;
     private int databasePort;
+    private String databaseDirectory;
     private int healthPort;
+    private int databaseMaxConnections = 32;
+    private int databaseMaxQueuedRequests = 1024;
+    private long databaseAcquireTimeoutMillis = 5000;
+    private long databaseIdleTimeoutMillis = 30000;
+    private long databaseValidateAfterInactivityMillis = 2000;
+    private long databaseConnectTimeoutMillis = 2000;
+    private long databaseSocketTimeoutMillis = 60000;
+    private int entityCacheMaxEntries = 10000;
+    private long entityCacheTtlMillis = 30000;
+    private Set<String> cachedEntityTypes = Set.of("user", "place");
+    private int batchChunkSize = 500;
+    private int responseWriterThreads = 32;
+    private int responseWriterMaxQueuedResponses = 1024;
+    private long queryTimeoutMillis = 30000;
+    private long queryMaxRows = 100000;
+    private long queryCacheMaxBytes = 0;
+    private long queryCacheMaxEntryBytes = 1024 * 1024;
+    private long queryCacheTtlMillis = 60000;
+    private int changeFeedCapacity = 10000;
+    private int changeFeedMaxSubscribers = 64;
+    private boolean changeFeedIncludeEntities = true;
+    private long changeFeedHeartbeatMillis = 15000;
+    private Set<String> writeBehindEntityTypes = Set.of();
+    private String writeBehindJournalDirectory = "journal";
+    private int writeBehindMaxQueuedWrites = 10000;
+    private int writeBehindMaxBatchSize = 500;
+    private long writeBehindMaxDelayMillis = 50;
+    private long writeBehindShutdownTimeoutMillis = 30000;
+    private long writeBehindAwaitTimeoutMillis = 5000;
+    private int circuitBreakerWindowSize = 50;
+    private int circuitBreakerMinimumCalls = 20;
+    private int circuitBreakerFailureRateThreshold = 50;
+    private long circuitBreakerSlowCallMillis = 5000;
+    private int circuitBreakerSlowCallRateThreshold = 80;
+    private long circuitBreakerOpenMillis = 10000;
+    private int circuitBreakerHalfOpenCalls = 3;
+    private long readinessTimeoutMillis = 2000;
+    private List<String> databaseReplicaUrls = List.of();
+    private long readYourWritesMillis = 2000;
+    private boolean hedgedReads = false;
+    private long hedgeMinDelayMillis = 5;
+    private boolean serverTimingEnabled = true;
+    private double traceSampleRate = 0;
+    private String traceFile = "traces/requests.otlp.jsonl";
+    private int traceMaxQueuedRecords = 10000;
+    private int traversalMaxDepth = 6;
+    private int traversalMaxNodes = 10000;
+    private int traversalFrontierBatchSize = 500;
 
 
     public String getServerUrl() {
@@ -31,6 +82,10 @@ public class ServerConfig {
         return "http://" + serverAddress.getHostAddress() + ":" + healthPort + "/live";
     }
 
+    public String getMetricsUrl() {
+        return "http://" + serverAddress.getHostAddress() + ":" + healthPort + "/metrics";
+    }
+
     public InetAddress getServerAddress() {
         return serverAddress;
     }
@@ -71,4 +126,396 @@ public class ServerConfig {
         this.healthPort = healthPort;
     }
 
+    public String getDatabaseDirectory() {
+        return databaseDirectory;
+    }
+
+    public void setDatabaseDirectory(String databaseDirectory) {
+        this.databaseDirectory = databaseDirectory;
+    }
+
+    public int getDatabaseMaxConnections() {
+        return databaseMaxConnections;
+    }
+
+    public void setDatabaseMaxConnections(int databaseMaxConnections) {
+        this.databaseMaxConnections = databaseMaxConnections;
+    }
+
+    public int getDatabaseMaxQueuedRequests() {
+        return databaseMaxQueuedRequests;
+    }
+
+    public void setDatabaseMaxQueuedRequests(int databaseMaxQueuedRequests) {
+        this.databaseMaxQueuedRequests = databaseMaxQueuedRequests;
+    }
+
+    public long getDatabaseAcquireTimeoutMillis() {
+        return databaseAcquireTimeoutMillis;
+    }
+
+    public void setDatabaseAcquireTimeoutMillis(long databaseAcquireTimeoutMillis) {
+        this.databaseAcquireTimeoutMillis = databaseAcquireTimeoutMillis;
+    }
+
+    public long getDatabaseIdleTimeoutMillis() {
+        return databaseIdleTimeoutMillis;
+    }
+
+    public void setDatabaseIdleTimeoutMillis(long databaseIdleTimeoutMillis) {
+        this.databaseIdleTimeoutMillis = databaseIdleTimeoutMillis;
+    }
+
+    public long getDatabaseValidateAfterInactivityMillis() {
+        return databaseValidateAfterInactivityMillis;
+    }
+
+    public void setDatabaseValidateAfterInactivityMillis(long databaseValidateAfterInactivityMillis) {
+        this.databaseValidateAfterInactivityMillis = databaseValidateAfterInactivityMillis;
+    }
+
+    public int getEntityCacheMaxEntries() {
+        return entityCacheMaxEntries;
+    }
+
+    public void setEntityCacheMaxEntries(int entityCacheMaxEntries) {
+        this.entityCacheMaxEntries = entityCacheMaxEntries;
+    }
+
+    public long getEntityCacheTtlMillis() {
+        return entityCacheTtlMillis;
+    }
+
+    public void setEntityCacheTtlMillis(long entityCacheTtlMillis) {
+        this.entityCacheTtlMillis = entityCacheTtlMillis;
+    }
+
+    public Set<String> getCachedEntityTypes() {
+        return cachedEntityTypes;
+    }
+
+    public void setCachedEntityTypes(Set<String> cachedEntityTypes) {
+        this.cachedEntityTypes = cachedEntityTypes;
+    }
+
+    public int getBatchChunkSize() {
+        return batchChunkSize;
+    }
+
+    public void setBatchChunkSize(int batchChunkSize) {
+        this.batchChunkSize = batchChunkSize;
+    }
+
+    public int getResponseWriterThreads() {
+        return responseWriterThreads;
+    }
+
+    public void setResponseWriterThreads(int responseWriterThreads) {
+        this.responseWriterThreads = responseWriterThreads;
+    }
+
+    public int getResponseWriterMaxQueuedResponses() {
+        return responseWriterMaxQueuedResponses;
+    }
+
+    public void setResponseWriterMaxQueuedResponses(int responseWriterMaxQueuedResponses) {
+        this.responseWriterMaxQueuedResponses = responseWriterMaxQueuedResponses;
+    }
+
+    public long getQueryTimeoutMillis() {
+        return queryTimeoutMillis;
+    }
+
+    public void setQueryTimeoutMillis(long queryTimeoutMillis) {
+        this.queryTimeoutMillis = queryTimeoutMillis;
+    }
+
+    public long getQueryMaxRows() {
+        return queryMaxRows;
+    }
+
+    public void setQueryMaxRows(long queryMaxRows) {
+        this.queryMaxRows = queryMaxRows;
+    }
+
+    public long getQueryCacheMaxBytes() {
+        return queryCacheMaxBytes;
+    }
+
+    public void setQueryCacheMaxBytes(long queryCacheMaxBytes) {
+        this.queryCacheMaxBytes = queryCacheMaxBytes;
+    }
+
+    public long getQueryCacheMaxEntryBytes() {
+        return queryCacheMaxEntryBytes;
+    }
+
+    public void setQueryCacheMaxEntryBytes(long queryCacheMaxEntryBytes) {
+        this.queryCacheMaxEntryBytes = queryCacheMaxEntryBytes;
+    }
+
+    public long getQueryCacheTtlMillis() {
+        return queryCacheTtlMillis;
+    }
+
+    public void setQueryCacheTtlMillis(long queryCacheTtlMillis) {
+        this.queryCacheTtlMillis = queryCacheTtlMillis;
+    }
+
+    public int getChangeFeedCapacity() {
+        return changeFeedCapacity;
+    }
+
+    public void setChangeFeedCapacity(int changeFeedCapacity) {
+        this.changeFeedCapacity = changeFeedCapacity;
+    }
+
+    public int getChangeFeedMaxSubscribers() {
+        return changeFeedMaxSubscribers;
+    }
+
+    public void setChangeFeedMaxSubscribers(int changeFeedMaxSubscribers) {
+        this.changeFeedMaxSubscribers = changeFeedMaxSubscribers;
+    }
+
+    public boolean isChangeFeedIncludeEntities() {
+        return changeFeedIncludeEntities;
+    }
+
+    public void setChangeFeedIncludeEntities(boolean changeFeedIncludeEntities) {
+        this.changeFeedIncludeEntities = changeFeedIncludeEntities;
+    }
+
+    public long getChangeFeedHeartbeatMillis() {
+        return changeFeedHeartbeatMillis;
+    }
+
+    public void setChangeFeedHeartbeatMillis(long changeFeedHeartbeatMillis) {
+        this.changeFeedHeartbeatMillis = changeFeedHeartbeatMillis;
+    }
+
+    public Set<String> getWriteBehindEntityTypes() {
+        return writeBehindEntityTypes;
+    }
+
+    public void setWriteBehindEntityTypes(Set<String> writeBehindEntityTypes) {
+        this.writeBehindEntityTypes = writeBehindEntityTypes;
+    }
+
+    public String getWriteBehindJournalDirectory() {
+        return writeBehindJournalDirectory;
+    }
+
+    public void setWriteBehindJournalDirectory(String writeBehindJournalDirectory) {
+        this.writeBehindJournalDirectory = writeBehindJournalDirectory;
+    }
+
+    public int getWriteBehindMaxQueuedWrites() {
+        return writeBehindMaxQueuedWrites;
+    }
+
+    public void setWriteBehindMaxQueuedWrites(int writeBehindMaxQueuedWrites) {
+        this.writeBehindMaxQueuedWrites = writeBehindMaxQueuedWrites;
+    }
+
+    public int getWriteBehindMaxBatchSize() {
+        return writeBehindMaxBatchSize;
+    }
+
+    public void setWriteBehindMaxBatchSize(int writeBehindMaxBatchSize) {
+        this.writeBehindMaxBatchSize = writeBehindMaxBatchSize;
+    }
+
+    public long getWriteBehindMaxDelayMillis() {
+        return writeBehindMaxDelayMillis;
+    }
+
+    public void setWriteBehindMaxDelayMillis(long writeBehindMaxDelayMillis) {
+        this.writeBehindMaxDelayMillis = writeBehindMaxDelayMillis;
+    }
+
+    public long getWriteBehindShutdownTimeoutMillis() {
+        return writeBehindShutdownTimeoutMillis;
+    }
+
+    public void setWriteBehindShutdownTimeoutMillis(long writeBehindShutdownTimeoutMillis) {
+        this.writeBehindShutdownTimeoutMillis = writeBehindShutdownTimeoutMillis;
+    }
+
+    public long getWriteBehindAwaitTimeoutMillis() {
+        return writeBehindAwaitTimeoutMillis;
+    }
+
+    public void setWriteBehindAwaitTimeoutMillis(long writeBehindAwaitTimeoutMillis) {
+        this.writeBehindAwaitTimeoutMillis = writeBehindAwaitTimeoutMillis;
+    }
+
+    public long getDatabaseConnectTimeoutMillis() {
+        return databaseConnectTimeoutMillis;
+    }
+
+    public void setDatabaseConnectTimeoutMillis(long databaseConnectTimeoutMillis) {
+        this.databaseConnectTimeoutMillis = databaseConnectTimeoutMillis;
+    }
+
+    public long getDatabaseSocketTimeoutMillis() {
+        return databaseSocketTimeoutMillis;
+    }
+
+    public void setDatabaseSocketTimeoutMillis(long databaseSocketTimeoutMillis) {
+        this.databaseSocketTimeoutMillis = databaseSocketTimeoutMillis;
+    }
+
+    public int getCircuitBreakerWindowSize() {
+        return circuitBreakerWindowSize;
+    }
+
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+    }
+
+    public int getCircuitBreakerMinimumCalls() {
+        return circuitBreakerMinimumCalls;
+    }
+
+    public void setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+        this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+    }
+
+    public int getCircuitBreakerFailureRateThreshold() {
+        return circuitBreakerFailureRateThreshold;
+    }
+
+    public void setCircuitBreakerFailureRateThreshold(int circuitBreakerFailureRateThreshold) {
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+    }
+
+    public long getCircuitBreakerSlowCallMillis() {
+        return circuitBreakerSlowCallMillis;
+    }
+
+    public void setCircuitBreakerSlowCallMillis(long circuitBreakerSlowCallMillis) {
+        this.circuitBreakerSlowCallMillis = circuitBreakerSlowCallMillis;
+    }
+
+    public int getCircuitBreakerSlowCallRateThreshold() {
+        return circuitBreakerSlowCallRateThreshold;
+    }
+
+    public void setCircuitBreakerSlowCallRateThreshold(int circuitBreakerSlowCallRateThreshold) {
+        this.circuitBreakerSlowCallRateThreshold = circuitBreakerSlowCallRateThreshold;
+    }
+
+    public long getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    public int getCircuitBreakerHalfOpenCalls() {
+        return circuitBreakerHalfOpenCalls;
+    }
+
+    public void setCircuitBreakerHalfOpenCalls(int circuitBreakerHalfOpenCalls) {
+        this.circuitBreakerHalfOpenCalls = circuitBreakerHalfOpenCalls;
+    }
+
+    public long getReadinessTimeoutMillis() {
+        return readinessTimeoutMillis;
+    }
+
+    public void setReadinessTimeoutMillis(long readinessTimeoutMillis) {
+        this.readinessTimeoutMillis = readinessTimeoutMillis;
+    }
+
+    public List<String> getDatabaseReplicaUrls() {
+        return databaseReplicaUrls;
+    }
+
+    public void setDatabaseReplicaUrls(List<String> databaseReplicaUrls) {
+        this.databaseReplicaUrls = databaseReplicaUrls;
+    }
+
+    public long getReadYourWritesMillis() {
+        return readYourWritesMillis;
+    }
+
+    public void setReadYourWritesMillis(long readYourWritesMillis) {
+        this.readYourWritesMillis = readYourWritesMillis;
+    }
+
+    public boolean isHedgedReads() {
+        return hedgedReads;
+    }
+
+    public void setHedgedReads(boolean hedgedReads) {
+        this.hedgedReads = hedgedReads;
+    }
+
+    public long getHedgeMinDelayMillis() {
+        return hedgeMinDelayMillis;
+    }
+
+    public void setHedgeMinDelayMillis(long hedgeMinDelayMillis) {
+        this.hedgeMinDelayMillis = hedgeMinDelayMillis;
+    }
+
+    public boolean isServerTimingEnabled() {
+        return serverTimingEnabled;
+    }
+
+    public void setServerTimingEnabled(boolean serverTimingEnabled) {
+        this.serverTimingEnabled = serverTimingEnabled;
+    }
+
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public void setTraceSampleRate(double traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    public void setTraceFile(String traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    public int getTraceMaxQueuedRecords() {
+        return traceMaxQueuedRecords;
+    }
+
+    public void setTraceMaxQueuedRecords(int traceMaxQueuedRecords) {
+        this.traceMaxQueuedRecords = traceMaxQueuedRecords;
+    }
+
+    public int getTraversalMaxDepth() {
+        return traversalMaxDepth;
+    }
+
+    public void setTraversalMaxDepth(int traversalMaxDepth) {
+        this.traversalMaxDepth = traversalMaxDepth;
+    }
+
+    public int getTraversalMaxNodes() {
+        return traversalMaxNodes;
+    }
+
+    public void setTraversalMaxNodes(int traversalMaxNodes) {
+        this.traversalMaxNodes = traversalMaxNodes;
+    }
+
+    public int getTraversalFrontierBatchSize() {
+        return traversalFrontierBatchSize;
+    }
+
+    public void setTraversalFrontierBatchSize(int traversalFrontierBatchSize) {
+        this.traversalFrontierBatchSize = traversalFrontierBatchSize;
+    }
+
 }
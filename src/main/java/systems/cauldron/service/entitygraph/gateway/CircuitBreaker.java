@@ -0,0 +1,179 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class CircuitBreaker {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final int slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    //outcomes of the most recent calls, overwritten in a ring
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int position;
+    private int callCount;
+    private int failureCount;
+    private int slowCallCount;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private int trialsStarted;
+    private int trialsSucceeded;
+    private long openedCount;
+    private long rejectedCount;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, long slowCallMillis, int slowCallRateThreshold,
+                          long openMillis, int halfOpenCalls) {
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenCalls = halfOpenCalls;
+        this.failures = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+    }
+
+    public synchronized void checkPermitted() throws OpenException {
+        //lets callers fail before queueing work, without using up one of the half-open trial calls
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos < openNanos) {
+            rejectedCount++;
+            throw new OpenException(getRetryAfterMillis());
+        }
+    }
+
+    public synchronized void acquirePermission() throws OpenException {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAtNanos < openNanos) {
+                rejectedCount++;
+                throw new OpenException(getRetryAfterMillis());
+            }
+            state = State.HALF_OPEN;
+            trialsStarted = 0;
+            trialsSucceeded = 0;
+            logger.log(Level.INFO, "graph store circuit half-open, sending trial calls");
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsStarted >= halfOpenCalls) {
+                rejectedCount++;
+                //the trials in flight will settle the state shortly
+                throw new OpenException(1000);
+            }
+            trialsStarted++;
+        }
+    }
+
+    public void onResult(long durationNanos, boolean failed) {
+        onResult(failed, durationNanos >= slowCallNanos);
+    }
+
+    public void onResult(boolean failed) {
+        //for calls whose duration is up to the caller rather than the store, so they are never counted as slow
+        onResult(failed, false);
+    }
+
+    private synchronized void onResult(boolean failed, boolean slow) {
+        switch (state) {
+            case HALF_OPEN:
+                //one bad trial is enough to keep the store protected for another open interval
+                if (failed || slow) {
+                    open("a trial call " + (failed ? "failed" : "was slow"));
+                } else if (++trialsSucceeded >= halfOpenCalls) {
+                    close();
+                }
+                break;
+            case CLOSED:
+                record(failed, slow);
+                if (callCount >= minimumCalls) {
+                    if (failureCount * 100 >= failureRateThreshold * callCount) {
+                        open(String.format("%d of the last %d calls failed", failureCount, callCount));
+                    } else if (slowCallCount * 100 >= slowCallRateThreshold * callCount) {
+                        open(String.format("%d of the last %d calls were slow", slowCallCount, callCount));
+                    }
+                }
+                break;
+            default:
+                //calls started before the circuit opened say nothing about the store now
+        }
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private void record(boolean failed, boolean slow) {
+        if (callCount == failures.length) {
+            failureCount -= failures[position] ? 1 : 0;
+            slowCallCount -= slowCalls[position] ? 1 : 0;
+        } else {
+            callCount++;
+        }
+        failures[position] = failed;
+        slowCalls[position] = slow;
+        failureCount += failed ? 1 : 0;
+        slowCallCount += slow ? 1 : 0;
+        position = (position + 1) % failures.length;
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openedAtNanos = System.nanoTime();
+        openedCount++;
+        logger.log(Level.WARNING, String.format("graph store circuit opened for %dms: %s", TimeUnit.NANOSECONDS.toMillis(openNanos), reason));
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        position = 0;
+        callCount = 0;
+        failureCount = 0;
+        slowCallCount = 0;
+        logger.log(Level.INFO, "graph store circuit closed");
+    }
+
+    private long getRetryAfterMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAtNanos)));
+    }
+
+    public static class OpenException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMillis;
+
+        public OpenException(long retryAfterMillis) {
+            //thrown for every rejected call while open, so no stack trace is filled in
+            super("graph store circuit is open", null, false, false);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public long getRetryAfterSeconds() {
+            //Retry-After is in whole seconds, and zero would invite an immediate retry
+            return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(retryAfterMillis + 999));
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import org.apache.http.pool.PoolStats;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.rdfconnection.RDFConnectionFactory;
+import org.apache.jena.tdb2.TDB2Factory;
+
+public class DatasetGraphConnectionPool extends GraphConnectionPool {
+
+    private final Dataset dataset;
+
+    public DatasetGraphConnectionPool(Dataset dataset, int maxConnections, int maxQueuedRequests, long idleTimeoutMillis) {
+        super(maxConnections, maxQueuedRequests, idleTimeoutMillis);
+        this.dataset = dataset;
+    }
+
+    public static DatasetGraphConnectionPool createTDB2(String directory, int maxConnections, int maxQueuedRequests, long idleTimeoutMillis) {
+        return new DatasetGraphConnectionPool(TDB2Factory.connectDataset(directory), maxConnections, maxQueuedRequests, idleTimeoutMillis);
+    }
+
+    @Override
+    public RDFConnection connect() {
+        //local connections are cheap views over the shared dataset; closing one leaves the dataset open
+        return RDFConnectionFactory.connect(dataset);
+    }
+
+    @Override
+    public PoolStats getStats() {
+        //there are no sockets to pool, so report the executor threads that bound concurrent transactions
+        int leased = getActiveRequests();
+        return new PoolStats(leased, getQueuedRequests(), getMaxConnections() - leased, getMaxConnections());
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        dataset.close();
+    }
+
+}
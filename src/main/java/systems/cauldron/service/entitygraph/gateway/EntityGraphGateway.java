@@ -1,186 +1,1015 @@
 package systems.cauldron.service.entitygraph.gateway;
 
-import org.apache.jena.query.ReadWrite;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdfconnection.RDFConnection;
-import org.apache.jena.rdfconnection.RDFConnectionFactory;
-import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.expr.E_OneOf;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.modify.request.UpdateModify;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.apache.jena.sparql.syntax.syntaxtransform.UpdateTransformOps;
 import org.apache.jena.system.Txn;
+import org.apache.jena.update.Update;
 import org.apache.jena.update.UpdateFactory;
 import org.apache.jena.update.UpdateRequest;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.XSD;
+import systems.cauldron.service.entitygraph.gateway.util.ChangeEvent;
+import systems.cauldron.service.entitygraph.gateway.util.ChangeFeed;
+import systems.cauldron.service.entitygraph.gateway.util.EntityCache;
+import systems.cauldron.service.entitygraph.gateway.util.EntityJsonSchema;
+import systems.cauldron.service.entitygraph.gateway.util.EntityStreamWriter;
+import systems.cauldron.service.entitygraph.gateway.util.QueryResultCache;
+import systems.cauldron.service.entitygraph.gateway.util.ReadYourWrites;
+import systems.cauldron.service.entitygraph.gateway.util.RequestTiming;
 import systems.cauldron.service.entitygraph.resource.EntityResourceFactory;
 
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Queue;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public abstract class EntityGraphGateway {
 
-    private final String endpointUrl;
+    private final GraphConnectionPool connectionPool;
 
     public static final String NAMESPACE_PREFIX = "http://cauldron.systems/graph#";
 
+    private static final String VERSION_URI = NAMESPACE_PREFIX + "version";
+    private static final String REVISION_URI = NAMESPACE_PREFIX + "revision";
+    private static final String RECEIPTS_GRAPH_URI = NAMESPACE_PREFIX + "receipts";
+    private static final String RECEIPT_OF_URI = NAMESPACE_PREFIX + "receiptOf";
+    private static final String RECEIVED_AT_URI = NAMESPACE_PREFIX + "receivedAt";
+    private static final String RECEIPT_PREFIX = "urn:uuid:";
+    private static final String RECEIPT_TTL = "PT1M";
+    private static final int WRITE_LOCK_STRIPES = 1024;
+
+    private static final Var SUBJECT = Var.alloc("s");
+    private static final Var TOKEN = Var.alloc("token");
+    private static final Var RECEIPT = Var.alloc("receipt");
+    private static final Var PROPERTY = Var.alloc("property");
+    private static final Var VALUE = Var.alloc("value");
+    private static final Var CURSOR = Var.alloc("cursor");
+    private static final Var CURRENT_VERSION = Var.alloc("currentVersion");
+    private static final Var PREDICATE = Var.alloc("p");
+    private static final Var OBJECT = Var.alloc("o");
+    private static final Var EXPANDED_PREDICATE = Var.alloc("ep");
+    private static final Var EXPANDED_OBJECT = Var.alloc("eo");
+
     private final String entityRootPath;
     private final String entityTypeUri;
     private final String filterConditions;
+    private final Map<String, String> objectProperties;
+    private final Map<String, EntityGraphGateway> relatedGateways;
+    private final EntityJsonSchema jsonSchema;
+
+    //statements are parsed once here and reused by substituting variables, rather than formatted and reparsed per call
+    private final Update createTemplate;
+    private final Update replaceTemplate;
+    private final Update patchTemplate;
+    private final Update revisionTemplate;
+    private final Update deleteTemplate;
+    private final Update guardedDeleteTemplate;
+    private final Update receiptCleanupTemplate;
+    private final Update receiptDeleteTemplate;
+    private final Query writeReadbackTemplate;
+    private final Query batchReadbackTemplate;
+    private final Query deleteReadbackTemplate;
+    private final Query multiReadTemplate;
+    private final Query versionTemplate;
+    private final Query existsTemplate;
+    private final Map<Set<String>, Query> readTemplates = new ConcurrentHashMap<>();
+    private final Map<List<Object>, Query> listTemplates = new ConcurrentHashMap<>();
+
+    //a receipt is only read straight after its write, so it is removed by the next update this gateway sends
+    private final Queue<Node> spentReceipts = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean expiredReceiptsSwept = new AtomicBoolean();
+    private final ReentrantLock[] writeLocks = new ReentrantLock[WRITE_LOCK_STRIPES];
 
-    public EntityGraphGateway(String endpointUrl, String entityType, Set<String> summaryFields) {
-        this.endpointUrl = endpointUrl;
+    private EntityCache cache;
+    private QueryResultCache queryCache;
+    private ChangeFeed changeFeed;
+    private WriteBehindQueue writeBehindQueue;
+
+    public EntityGraphGateway(GraphConnectionPool connectionPool, String entityType, Set<String> summaryFields, Map<String, String> objectProperties) {
+        this.connectionPool = connectionPool;
         this.entityTypeUri = NAMESPACE_PREFIX + entityType;
         this.entityRootPath = EntityResourceFactory.getEntityRootPath(entityType);
         this.filterConditions = summaryFields.stream()
                 .map(fieldName -> String.format("?p = <%s%s>", NAMESPACE_PREFIX, fieldName))
                 .collect(Collectors.joining(" || "));
+        this.objectProperties = objectProperties;
+        this.relatedGateways = new HashMap<>();
+        this.jsonSchema = getJsonSchema();
+        Arrays.setAll(writeLocks, i -> new ReentrantLock());
+        //each write also leaves a receipt under its own token, which a concurrent write to the same entity cannot overwrite
+        String receipt = String.format("GRAPH <%s> { ?receipt <%s> ?s ; <%s> ?revision ; <%s> ?now }",
+                RECEIPTS_GRAPH_URI, RECEIPT_OF_URI, REVISION_URI, RECEIVED_AT_URI);
+        this.createTemplate = parseUpdate("INSERT { ?s <%s> ?token ; <%s> 1 . %s } WHERE { FILTER NOT EXISTS { ?s ?p ?o } BIND ( 1 AS ?revision ) BIND ( NOW() AS ?now ) }",
+                VERSION_URI, REVISION_URI, receipt);
+        this.replaceTemplate = parseUpdate("DELETE { ?s ?p ?o } INSERT { ?s <%s> ?token ; <%s> ?revision . %s } " +
+                        "WHERE { OPTIONAL { ?s ?p ?o } OPTIONAL { ?s <%s> ?previous } BIND ( COALESCE(?previous, 0) + 1 AS ?revision ) BIND ( NOW() AS ?now ) }",
+                VERSION_URI, REVISION_URI, receipt, REVISION_URI);
+        //guarded on the entity's type triple so a PATCH to a missing entity writes nothing
+        this.patchTemplate = parseUpdate("DELETE { ?s ?property ?o } INSERT { ?s ?property ?value } " +
+                        "WHERE { ?s a <%s> OPTIONAL { ?s ?property ?o } }",
+                entityTypeUri);
+        this.revisionTemplate = parseUpdate("DELETE { ?s <%s> ?version ; <%s> ?previous } INSERT { ?s <%s> ?token ; <%s> ?revision . %s } " +
+                        "WHERE { ?s a <%s> OPTIONAL { ?s <%s> ?version } OPTIONAL { ?s <%s> ?previous } BIND ( COALESCE(?previous, 0) + 1 AS ?revision ) BIND ( NOW() AS ?now ) }",
+                VERSION_URI, REVISION_URI, VERSION_URI, REVISION_URI, receipt, entityTypeUri, VERSION_URI, REVISION_URI);
+        this.deleteTemplate = parseUpdate("DELETE WHERE { ?s ?p ?o }");
+        //the receipt is only left when the guard matched an existing entity, which is what tells a 412 apart from a 204
+        this.guardedDeleteTemplate = parseUpdate("DELETE { ?s ?p ?o } INSERT { GRAPH <%s> { ?receipt <%s> ?s ; <%s> ?now } } " +
+                        "WHERE { ?s ?p ?o BIND ( NOW() AS ?now ) }",
+                RECEIPTS_GRAPH_URI, RECEIPT_OF_URI, RECEIVED_AT_URI);
+        //receipts left behind by a previous run, which never got to send its next update
+        this.receiptCleanupTemplate = parseUpdate("DELETE { GRAPH <%s> { ?receipt ?p ?o } } " +
+                        "WHERE { GRAPH <%s> { ?receipt <%s> ?s ; <%s> ?receivedAt ; ?p ?o } FILTER ( ?receivedAt < NOW() - \"%s\"^^<%s> ) }",
+                RECEIPTS_GRAPH_URI, RECEIPTS_GRAPH_URI, RECEIPT_OF_URI, RECEIVED_AT_URI, RECEIPT_TTL, XSD.dayTimeDuration.getURI());
+        this.receiptDeleteTemplate = parseUpdate("DELETE WHERE { GRAPH <%s> { ?receipt ?p ?o } }",
+                RECEIPTS_GRAPH_URI);
+        this.writeReadbackTemplate = QueryFactory.create(String.format("SELECT ?revision WHERE { GRAPH <%s> { ?receipt <%s> ?revision } }",
+                RECEIPTS_GRAPH_URI, REVISION_URI));
+        this.batchReadbackTemplate = QueryFactory.create(String.format("SELECT ?receipt WHERE { GRAPH <%s> { ?receipt <%s> ?revision } }",
+                RECEIPTS_GRAPH_URI, REVISION_URI));
+        this.deleteReadbackTemplate = QueryFactory.create(String.format("SELECT ?s WHERE { GRAPH <%s> { ?receipt <%s> ?s } }",
+                RECEIPTS_GRAPH_URI, RECEIPT_OF_URI));
+        this.multiReadTemplate = QueryFactory.create("SELECT ?s ?p ?o WHERE { ?s ?p ?o }");
+        this.versionTemplate = QueryFactory.create(String.format("SELECT ?version WHERE { ?s <%s> ?version }", VERSION_URI));
+        this.existsTemplate = QueryFactory.create("SELECT ?p WHERE { ?s ?p ?o } LIMIT 1");
     }
 
     public boolean create(String entityId, JsonObject jsonObject) {
-        boolean conflict;
-        String entityPath = entityRootPath + entityId;
-        Model model = buildModel(entityId, jsonObject);
-        try (RDFConnection conn = RDFConnectionFactory.connect(endpointUrl)) {
-            conn.begin(ReadWrite.WRITE);
+        String writeToken = UUID.randomUUID().toString();
+        UpdateRequest updateRequest = new UpdateRequest(getCreateOperation(entityId, jsonObject, writeToken));
+        awaitWriteBehind(entityId);
+        return sequenced(List.of(entityId), () -> {
+            Optional<Long> revision = write("create", entityId, writeToken, updateRequest);
+            revision.ifPresent(r -> publish(ChangeEvent.Operation.CREATE, entityId, writeToken, r, jsonObject));
+            return revision.isPresent();
+        });
+    }
+
+    public List<CreateOutcome> createAll(List<String> entityIds, List<JsonObject> jsonObjects) {
+        List<String> writeTokens = new ArrayList<>();
+        UpdateRequest updateRequest = new UpdateRequest();
+        List<Binding> values = new ArrayList<>();
+        for (int i = 0; i < entityIds.size(); i++) {
+            String entityId = entityIds.get(i);
+            String writeToken = UUID.randomUUID().toString();
             try {
-                String queryString = String.format("ASK { <%s> ?p ?o }", entityPath);
-                conflict = conn.queryAsk(queryString);
-                if (!conflict) {
-                    conn.load(model);
-                } else {
-                    conn.abort();
-                }
-                conn.commit();
-            } finally {
-                conn.end();
+                updateRequest.add(getCreateOperation(entityId, jsonObjects.get(i), writeToken));
+            } catch (RuntimeException ex) {
+                writeTokens.add(null);
+                continue;
             }
+            writeTokens.add(writeToken);
+            values.add(BindingFactory.binding(RECEIPT, getReceiptNode(writeToken)));
         }
-        model.close();
-        return !conflict;
+        return sequenced(entityIds, () -> createAll(entityIds, jsonObjects, writeTokens, updateRequest, values));
     }
 
-    public boolean createOrUpdate(String entityId, JsonObject jsonObject) {
-        boolean isUpdate;
-        String entityPath = entityRootPath + entityId;
-        Model model = buildModel(entityId, jsonObject);
-        try (RDFConnection conn = RDFConnectionFactory.connect(endpointUrl)) {
-            conn.begin(ReadWrite.WRITE);
+    private List<CreateOutcome> createAll(List<String> entityIds, List<JsonObject> jsonObjects, List<String> writeTokens,
+                                          UpdateRequest updateRequest, List<Binding> values) {
+        Set<String> writtenTokens = new HashSet<>();
+        if (!updateRequest.getOperations().isEmpty()) {
+            List<Node> receipts = takeSpentReceipts();
+            UpdateRequest request = getReceiptCleanupRequest(receipts);
+            updateRequest.getOperations().forEach(request::add);
+            Query query = getValuesQuery(batchReadbackTemplate, List.of(RECEIPT), values);
             try {
-                String queryString = String.format("ASK { <%s> ?p ?o }", entityPath);
-                isUpdate = conn.queryAsk(queryString);
-                if (isUpdate) {
-                    String updateString = String.format("DELETE WHERE { <%s> ?p ?o }", entityPath);
-                    UpdateRequest updateRequest = UpdateFactory.create(updateString);
-                    conn.update(updateRequest);
-                }
-                conn.load(model);
-                conn.commit();
+                connectionPool.execute(getEntityType(), "createAll", conn -> Txn.executeWrite(conn, () -> {
+                    conn.update(request);
+                    conn.querySelect(query, qs -> writtenTokens.add(qs.getResource("receipt").getURI().substring(RECEIPT_PREFIX.length())));
+                }));
+            } catch (RuntimeException ex) {
+                spentReceipts.addAll(receipts);
+                throw ex;
             } finally {
-                conn.end();
+                entityIds.forEach(this::invalidate);
+            }
+            writtenTokens.forEach(writeToken -> spentReceipts.add(getReceiptNode(writeToken)));
+        }
+        List<CreateOutcome> outcomes = writeTokens.stream()
+                .map(writeToken -> writeToken == null ? CreateOutcome.INVALID
+                        : writtenTokens.contains(writeToken) ? CreateOutcome.CREATED : CreateOutcome.CONFLICT)
+                .collect(Collectors.toList());
+        for (int i = 0; i < outcomes.size(); i++) {
+            if (outcomes.get(i) == CreateOutcome.CREATED) {
+                publish(ChangeEvent.Operation.CREATE, entityIds.get(i), writeTokens.get(i), 1L, jsonObjects.get(i));
             }
         }
-        model.close();
-        return !isUpdate;
+        return outcomes;
+    }
+
+    public boolean createOrUpdate(String entityId, JsonObject jsonObject) {
+        String writeToken = UUID.randomUUID().toString();
+        UpdateRequest updateRequest = getReplaceRequest(entityId, jsonObject, writeToken);
+        awaitWriteBehind(entityId);
+        return sequenced(List.of(entityId), () -> {
+            Optional<Long> revision = write("replace", entityId, writeToken, updateRequest);
+            revision.ifPresent(r -> publish(r == 1L ? ChangeEvent.Operation.CREATE : ChangeEvent.Operation.UPDATE, entityId, writeToken, r, jsonObject));
+            //a missing revision means a concurrent writer replaced ours, which can only happen to an existing entity
+            return revision.map(r -> r == 1L).orElse(false);
+        });
     }
 
     public boolean update(String entityId, JsonObject jsonObject) {
-        boolean patchable;
-        String entityPath = entityRootPath + entityId;
+        String writeToken = UUID.randomUUID().toString();
+        UpdateRequest updateRequest = getPatchRequest(entityId, jsonObject, writeToken);
+        awaitWriteBehind(entityId);
+        return sequenced(List.of(entityId), () -> {
+            Optional<Long> revision = write("patch", entityId, writeToken, updateRequest);
+            //a patch only carries some properties, so its event has no entity
+            revision.ifPresent(r -> publish(ChangeEvent.Operation.UPDATE, entityId, writeToken, r, null));
+            return revision.isPresent();
+        });
+    }
+
+    UpdateRequest getReplaceRequest(String entityId, JsonObject jsonObject, String writeToken) {
         Model model = buildModel(entityId, jsonObject);
-        try (RDFConnection conn = RDFConnectionFactory.connect(endpointUrl)) {
-            conn.begin(ReadWrite.WRITE);
-            try {
-                String queryString = String.format("ASK { <%s> ?p ?o }", entityPath);
-                patchable = conn.queryAsk(queryString);
-                if (patchable) {
-                    model.listStatements().forEachRemaining(statement -> {
-                        String predicate = FmtUtils.stringForRDFNode(statement.getPredicate());
-                        String object = FmtUtils.stringForRDFNode(statement.getObject());
-                        String updateString = String.format("DELETE { ?s ?p ?o } INSERT { ?s ?p %s } WHERE { ?s ?p ?o . <%s> %s ?o }", object, entityPath, predicate);
-                        UpdateRequest updateRequest = UpdateFactory.create(updateString);
-                        conn.update(updateRequest);
-                    });
-                    conn.commit();
+        try {
+            UpdateModify update = (UpdateModify) UpdateTransformOps.transform(replaceTemplate, getWriteBindings(entityId, writeToken));
+            model.getGraph().find().forEachRemaining(update.getInsertAcc()::addTriple);
+            return new UpdateRequest(update);
+        } finally {
+            model.close();
+        }
+    }
+
+    UpdateRequest getPatchRequest(String entityId, JsonObject jsonObject, String writeToken) {
+        Node entityNode = getEntityNode(entityId);
+        Model model = buildModel(entityId, jsonObject);
+        UpdateRequest updateRequest = new UpdateRequest();
+        try {
+            model.getGraph().find(Node.ANY, Node.ANY, Node.ANY)
+                    .filterDrop(triple -> triple.getPredicate().equals(RDF.type.asNode()))
+                    .forEachRemaining(triple -> updateRequest.add(UpdateTransformOps.transform(patchTemplate,
+                            Map.of(SUBJECT, entityNode, PROPERTY, triple.getPredicate(), VALUE, triple.getObject()))));
+        } finally {
+            model.close();
+        }
+        return updateRequest.add(UpdateTransformOps.transform(revisionTemplate, getWriteBindings(entityId, writeToken)));
+    }
+
+    public boolean createOrUpdateIfMatch(String entityId, JsonObject jsonObject, List<String> expectedVersions) {
+        String writeToken = UUID.randomUUID().toString();
+        UpdateRequest updateRequest = getGuardedRequest(entityId, getReplaceRequest(entityId, jsonObject, writeToken), expectedVersions);
+        awaitWriteBehind(entityId);
+        return sequenced(List.of(entityId), () -> {
+            Optional<Long> revision = write("replaceIfMatch", entityId, writeToken, updateRequest);
+            revision.ifPresent(r -> publish(ChangeEvent.Operation.UPDATE, entityId, writeToken, r, jsonObject));
+            return revision.isPresent();
+        });
+    }
+
+    public boolean updateIfMatch(String entityId, JsonObject jsonObject, List<String> expectedVersions) {
+        String writeToken = UUID.randomUUID().toString();
+        UpdateRequest updateRequest = getGuardedRequest(entityId, getPatchRequest(entityId, jsonObject, writeToken), expectedVersions);
+        awaitWriteBehind(entityId);
+        return sequenced(List.of(entityId), () -> {
+            Optional<Long> revision = write("patchIfMatch", entityId, writeToken, updateRequest);
+            revision.ifPresent(r -> publish(ChangeEvent.Operation.UPDATE, entityId, writeToken, r, null));
+            return revision.isPresent();
+        });
+    }
+
+    public boolean deleteIfMatch(String entityId, List<String> expectedVersions) {
+        awaitWriteBehind(entityId);
+        return sequenced(List.of(entityId), () -> guardedDelete(entityId, expectedVersions));
+    }
+
+    private boolean guardedDelete(String entityId, List<String> expectedVersions) {
+        String deleteToken = UUID.randomUUID().toString();
+        Map<Var, Node> bindings = getWriteBindings(entityId, deleteToken);
+        List<Node> receipts = takeSpentReceipts();
+        UpdateRequest updateRequest = getReceiptCleanupRequest(receipts);
+        getGuardedRequest(entityId, new UpdateRequest(UpdateTransformOps.transform(guardedDeleteTemplate, bindings)), expectedVersions)
+                .getOperations()
+                .forEach(updateRequest::add);
+        Query query = QueryTransformOps.transform(deleteReadbackTemplate, bindings);
+        boolean deleted;
+        try {
+            deleted = connectionPool.calculate(getEntityType(), "deleteIfMatch", conn -> Txn.calculateWrite(conn, () -> {
+                conn.update(updateRequest);
+                try (QueryExecution queryExecution = conn.query(query)) {
+                    return queryExecution.execSelect().hasNext();
+                }
+            }));
+        } catch (RuntimeException ex) {
+            spentReceipts.addAll(receipts);
+            throw ex;
+        } finally {
+            invalidate(entityId);
+        }
+        if (deleted) {
+            spentReceipts.add(getReceiptNode(deleteToken));
+            publish(ChangeEvent.Operation.DELETE, entityId, null, null, null);
+        }
+        return deleted;
+    }
+
+    public Optional<JsonObject> read(String entityId) {
+        return read(entityId, Collections.emptySet());
+    }
+
+    public Optional<JsonObject> read(String entityId, Set<String> expand) {
+        return readVersioned(entityId, expand).map(VersionedEntity::getJson);
+    }
+
+    public Optional<VersionedEntity> readVersioned(String entityId, Set<String> expand) {
+        if (cache == null || !expand.isEmpty()) {
+            return readEntity(entityId, expand);
+        }
+        return cache.get(EntityCache.getEntityKey(getEntityType(), entityId), VersionedEntity.class,
+                () -> connectionPool.isCacheable(getEntityType(), List.of(entityId)), () -> readEntity(entityId, expand));
+    }
+
+    public Optional<String> readVersion(String entityId) {
+        //answered from the cached entity when there is one, and otherwise without reading the entity's properties
+        if (cache != null) {
+            Optional<VersionedEntity> cached = cache.getIfPresent(EntityCache.getEntityKey(getEntityType(), entityId), VersionedEntity.class);
+            if (cached.isPresent()) {
+                return cached.get().getVersion();
+            }
+        }
+        Query query = QueryTransformOps.transform(versionTemplate, Map.of(SUBJECT, getEntityNode(entityId)));
+        return connectionPool.calculateRead(getEntityType(), "readVersion", List.of(entityId), conn -> Txn.calculateRead(conn, () -> {
+            try (QueryExecution queryExecution = conn.query(query)) {
+                ResultSet resultSet = queryExecution.execSelect();
+                if (resultSet.hasNext()) {
+                    return Optional.of(resultSet.next().getLiteral("version").getString());
                 } else {
-                    conn.abort();
+                    return Optional.<String>empty();
                 }
-            } finally {
-                conn.end();
             }
+        }));
+    }
+
+    public boolean exists(String entityId) {
+        //any triple about the entity will do, since not every entity carries a version
+        if (cache != null && cache.getIfPresent(EntityCache.getEntityKey(getEntityType(), entityId), VersionedEntity.class).isPresent()) {
+            return true;
         }
-        model.close();
-        return patchable;
+        Query query = QueryTransformOps.transform(existsTemplate, Map.of(SUBJECT, getEntityNode(entityId)));
+        return connectionPool.calculateRead(getEntityType(), "exists", List.of(entityId), conn -> Txn.calculateRead(conn, () -> {
+            try (QueryExecution queryExecution = conn.query(query)) {
+                return queryExecution.execSelect().hasNext();
+            }
+        }));
     }
 
-    public Optional<JsonObject> read(String entityId) {
-        String entityPath = entityRootPath + entityId;
-        Map<String, RDFNode> resultMap = new HashMap<>();
-        try (RDFConnection conn = RDFConnectionFactory.connect(endpointUrl)) {
-            Txn.executeRead(conn, () -> {
-                String queryString = String.format("SELECT ?p ?o WHERE { <%s> ?p ?o }", entityPath);
-                conn.querySelect(queryString, qs -> {
-                    String p = getPropertyLocalName(qs.get("p"));
-                    RDFNode o = qs.get("o");
-                    resultMap.put(p, o);
-                });
-            });
+    public JsonArray read(List<String> entityIds) {
+        Map<String, VersionedEntity> results = new LinkedHashMap<>();
+        entityIds.forEach(entityId -> results.put(entityId, null));
+        long stamp = 0;
+        if (cache != null) {
+            stamp = cache.getInvalidationStamp();
+            for (String entityId : results.keySet()) {
+                cache.getIfPresent(EntityCache.getEntityKey(getEntityType(), entityId), VersionedEntity.class)
+                        .ifPresent(entity -> results.put(entityId, entity));
+            }
+        }
+        List<String> missingIds = results.entrySet().stream()
+                .filter(e -> e.getValue() == null)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        if (!missingIds.isEmpty()) {
+            boolean cacheable = cache != null && connectionPool.isCacheable(getEntityType(), missingIds);
+            Map<String, VersionedEntity> loaded = readEntities(missingIds);
+            results.putAll(loaded);
+            if (cacheable) {
+                for (Map.Entry<String, VersionedEntity> e : loaded.entrySet()) {
+                    cache.put(EntityCache.getEntityKey(getEntityType(), e.getKey()), e.getValue(), stamp);
+                }
+            }
         }
-        if (resultMap.isEmpty()) {
+        JsonArrayBuilder resultArray = Json.createArrayBuilder();
+        results.values().stream()
+                .filter(Objects::nonNull)
+                .map(VersionedEntity::getJson)
+                .forEach(resultArray::add);
+        return resultArray.build();
+    }
+
+    public EntityListing list() {
+        if (cache == null) {
+            return list(Optional.empty(), OptionalInt.empty(), Collections.emptySet());
+        }
+        return cache.get(EntityCache.getCollectionKey(getEntityType()), EntityListing.class,
+                () -> connectionPool.isCacheable(getEntityType(), List.of()),
+                () -> Optional.of(list(Optional.empty(), OptionalInt.empty(), Collections.emptySet()))).orElseThrow();
+    }
+
+    public EntityListing list(Optional<String> cursor, OptionalInt limit, Set<String> expand) {
+        return list(cursor, limit, expand, false);
+    }
+
+    public EntityListing list(Optional<String> cursor, OptionalInt limit, Set<String> expand, boolean delimited) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EntityStreamWriter writer = delimited ? EntityStreamWriter.delimited(output) : EntityStreamWriter.array(output);
+        stream(cursor, limit, expand, writer);
+        writer.finish();
+        return new EntityListing(output.toByteArray(), writer.getCount(), writer.getLastEntityId());
+    }
+
+    public void stream(Optional<String> cursor, OptionalInt limit, Set<String> expand, EntityStreamWriter writer) {
+        Query query = getListQuery(cursor, limit, expand);
+        connectionPool.executeRead(getEntityType(), "list", List.of(), conn -> Txn.executeRead(conn, () -> {
+            //solutions arrive ordered by subject, so each entity is written out as soon as the subject changes
+            EntityAssembler assembler = new EntityAssembler();
+            select(conn, query, binding -> {
+                Node subject = binding.get(SUBJECT);
+                if (!subject.equals(assembler.subject)) {
+                    if (!assembler.isEmpty()) {
+                        assembler.write(writer.next(assembler.entityId));
+                    }
+                    assembler.reset(subject);
+                }
+                assembler.accept(binding);
+            });
+            if (!assembler.isEmpty()) {
+                assembler.write(writer.next(assembler.entityId));
+            }
+        }));
+    }
+
+    private Optional<VersionedEntity> readEntity(String entityId, Set<String> expand) {
+        Node entityNode = getEntityNode(entityId);
+        Query query = getReadQuery(entityId, expand);
+        //assembled inside the task, which may run more than once when a slow replica read is hedged
+        EntityAssembler assembler = connectionPool.calculateRead(getEntityType(), "read", List.of(entityId),
+                conn -> Txn.calculateRead(conn, () -> assemble(conn, query, entityNode)));
+        if (assembler.isEmpty()) {
             return Optional.empty();
         } else {
-            JsonObject jsonObject = buildJson(entityId, resultMap);
-            return Optional.of(jsonObject);
-        }
-    }
-
-    public JsonArray list() {
-        Map<String, Map<String, RDFNode>> resultMap = new HashMap<>();
-        try (RDFConnection conn = RDFConnectionFactory.connect(endpointUrl)) {
-            Txn.executeRead(conn, () -> {
-                String queryString = String.format("SELECT ?s ?p ?o WHERE { ?s ?p ?o . ?s a <%s> . FILTER ( %s ) }", entityTypeUri, filterConditions);
-                conn.querySelect(queryString, qs -> {
-                    String s = getResourceLocalName(qs.get("s"));
-                    Map<String, RDFNode> entityPropertyMap = resultMap.computeIfAbsent(s, x -> new HashMap<>());
-                    String p = getPropertyLocalName(qs.get("p"));
-                    RDFNode o = qs.get("o");
-                    entityPropertyMap.put(p, o);
-                });
-            });
+            return Optional.of(new VersionedEntity(RequestTiming.time(RequestTiming.Phase.SERIALIZE, assembler::build), assembler.version));
+        }
+    }
+
+    private Map<String, VersionedEntity> readEntities(List<String> entityIds) {
+        Query query = getValuesQuery(multiReadTemplate, List.of(SUBJECT), entityIds.stream()
+                .map(entityId -> BindingFactory.binding(SUBJECT, getEntityNode(entityId)))
+                .collect(Collectors.toList()));
+        Map<Node, EntityAssembler> assemblers = connectionPool.calculateRead(getEntityType(), "readAll", entityIds,
+                conn -> Txn.calculateRead(conn, () -> assembleAll(conn, query)));
+        return RequestTiming.time(RequestTiming.Phase.SERIALIZE, () -> assemblers.values().stream()
+                .collect(Collectors.toMap(assembler -> assembler.entityId,
+                        assembler -> new VersionedEntity(assembler.build(), assembler.version))));
+    }
+
+    private EntityAssembler assemble(RDFConnection conn, Query query, Node subject) {
+        EntityAssembler assembler = new EntityAssembler();
+        assembler.reset(subject);
+        select(conn, query, assembler::accept);
+        return assembler;
+    }
+
+    private Map<Node, EntityAssembler> assembleAll(RDFConnection conn, Query query) {
+        Map<Node, EntityAssembler> assemblers = new HashMap<>();
+        select(conn, query, binding -> assemblers.computeIfAbsent(binding.get(SUBJECT), subject -> {
+            EntityAssembler assembler = new EntityAssembler();
+            assembler.reset(subject);
+            return assembler;
+        }).accept(binding));
+        return assemblers;
+    }
+
+    private static void select(RDFConnection conn, Query query, Consumer<Binding> consumer) {
+        //bindings are read directly, skipping the RDFNode wrappers a QuerySolution allocates for every variable
+        try (QueryExecution queryExecution = conn.query(query)) {
+            ResultSet resultSet = queryExecution.execSelect();
+            while (resultSet.hasNext()) {
+                consumer.accept(resultSet.nextBinding());
+            }
         }
-        JsonArrayBuilder results = Json.createArrayBuilder();
-        resultMap.entrySet().stream()
-                .map(e -> buildJson(e.getKey(), e.getValue()))
-                .forEach(results::add);
-        return results.build();
     }
 
     public void delete(String entityId) {
-        String entityPath = entityRootPath + entityId;
-        try (RDFConnection conn = RDFConnectionFactory.connect(endpointUrl)) {
-            Txn.executeWrite(conn, () -> {
-                String updateString = String.format("DELETE WHERE { <%s> ?p ?o }", entityPath);
-                UpdateRequest updateRequest = UpdateFactory.create(updateString);
-                conn.update(updateRequest);
-            });
+        awaitWriteBehind(entityId);
+        sequenced(List.of(entityId), () -> {
+            unguardedDelete(entityId);
+            return null;
+        });
+    }
+
+    private void unguardedDelete(String entityId) {
+        List<Node> receipts = takeSpentReceipts();
+        UpdateRequest updateRequest = getReceiptCleanupRequest(receipts)
+                .add(UpdateTransformOps.transform(deleteTemplate, Map.of(SUBJECT, getEntityNode(entityId))));
+        try {
+            connectionPool.execute(getEntityType(), "delete", conn -> Txn.executeWrite(conn, () -> conn.update(updateRequest)));
+        } catch (RuntimeException ex) {
+            spentReceipts.addAll(receipts);
+            throw ex;
+        } finally {
+            invalidate(entityId);
         }
+        publish(ChangeEvent.Operation.DELETE, entityId, null, null, null);
+    }
+
+    public CompletionStage<Boolean> createAsync(String entityId, JsonObject jsonObject) {
+        return submit(() -> create(entityId, jsonObject));
+    }
+
+    public CompletionStage<List<CreateOutcome>> createAllAsync(List<String> entityIds, List<JsonObject> jsonObjects) {
+        return submit(() -> createAll(entityIds, jsonObjects));
+    }
+
+    public CompletionStage<Boolean> createOrUpdateAsync(String entityId, JsonObject jsonObject) {
+        return submit(() -> createOrUpdate(entityId, jsonObject));
+    }
+
+    public CompletionStage<Boolean> updateAsync(String entityId, JsonObject jsonObject) {
+        return submit(() -> update(entityId, jsonObject));
+    }
+
+    public CompletionStage<Boolean> createOrUpdateIfMatchAsync(String entityId, JsonObject jsonObject, List<String> expectedVersions) {
+        return submit(() -> createOrUpdateIfMatch(entityId, jsonObject, expectedVersions));
+    }
+
+    public CompletionStage<Boolean> updateIfMatchAsync(String entityId, JsonObject jsonObject, List<String> expectedVersions) {
+        return submit(() -> updateIfMatch(entityId, jsonObject, expectedVersions));
+    }
+
+    public CompletionStage<Boolean> deleteIfMatchAsync(String entityId, List<String> expectedVersions) {
+        return submit(() -> deleteIfMatch(entityId, expectedVersions));
+    }
+
+    public CompletionStage<Optional<JsonObject>> readAsync(String entityId, Set<String> expand) {
+        return submit(() -> read(entityId, expand));
+    }
+
+    public CompletionStage<Optional<VersionedEntity>> readVersionedAsync(String entityId, Set<String> expand) {
+        return submit(() -> readVersioned(entityId, expand));
+    }
+
+    public CompletionStage<Optional<String>> readVersionAsync(String entityId) {
+        return submit(() -> readVersion(entityId));
+    }
+
+    public CompletionStage<Boolean> existsAsync(String entityId) {
+        return submit(() -> exists(entityId));
+    }
+
+    public CompletionStage<JsonArray> readAsync(List<String> entityIds) {
+        return submit(() -> read(entityIds));
+    }
+
+    public CompletionStage<EntityListing> listAsync() {
+        return submit(this::list);
+    }
+
+    public CompletionStage<EntityListing> listAsync(Optional<String> cursor, OptionalInt limit, Set<String> expand) {
+        return submit(() -> list(cursor, limit, expand));
+    }
+
+    public CompletionStage<EntityListing> listAsync(Optional<String> cursor, OptionalInt limit, Set<String> expand, boolean delimited) {
+        return submit(() -> list(cursor, limit, expand, delimited));
+    }
+
+    public CompletionStage<Void> deleteAsync(String entityId) {
+        return submit(() -> {
+            delete(entityId);
+            return null;
+        });
+    }
+
+    public <T> CompletionStage<T> submit(Supplier<T> task) {
+        //blocking database calls run on the pool's executor so request threads are released while they wait
+        try {
+            //nothing is queued while the store's circuit is open
+            connectionPool.checkAvailable();
+            long submittedNanos = System.nanoTime();
+            return CompletableFuture.supplyAsync(RequestTiming.propagate(ReadYourWrites.propagate(() -> {
+                RequestTiming.record(RequestTiming.Phase.QUEUE, submittedNanos, Map.of());
+                return task.get();
+            })), connectionPool.getExecutor());
+        } catch (RejectedExecutionException | CircuitBreaker.OpenException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    public void setCache(EntityCache cache) {
+        this.cache = cache;
+    }
+
+    public void setQueryCache(QueryResultCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    public void setWriteBehindQueue(WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    public Optional<WriteBehindQueue> getWriteBehindQueue() {
+        return Optional.ofNullable(writeBehindQueue);
+    }
+
+    public void setRelatedGateways(List<EntityGraphGateway> gateways) {
+        gateways.forEach(gateway -> relatedGateways.put(gateway.getEntityType(), gateway));
+    }
+
+    public Map<String, String> getObjectProperties() {
+        return objectProperties;
+    }
+
+    private String getPropertyList(Set<String> propertyNames) {
+        return propertyNames.stream()
+                .map(propertyName -> "<" + NAMESPACE_PREFIX + propertyName + ">")
+                .collect(Collectors.joining(", "));
+    }
+
+    private String getExpansionPattern(Set<String> expand) {
+        if (expand.isEmpty()) {
+            return "";
+        }
+        return String.format("OPTIONAL { FILTER ( ?p IN ( %s ) ) ?o ?ep ?eo }", getPropertyList(expand));
+    }
+
+    private void invalidate(String entityId) {
+        connectionPool.recordWrite(getEntityType(), entityId);
+        if (cache != null) {
+            cache.invalidate(EntityCache.getEntityKey(getEntityType(), entityId), EntityCache.getCollectionKey(getEntityType()));
+        }
+        if (queryCache != null) {
+            //ad-hoc query results may depend on any entity, so every write starts a new generation
+            queryCache.advanceGeneration();
+        }
+    }
+
+    private void publish(ChangeEvent.Operation operation, String entityId, String version, Long revision, JsonObject jsonObject) {
+        //published once the write has committed, so consumers never see a change that was rolled back
+        if (changeFeed != null) {
+            changeFeed.publish(getEntityType(), entityId, operation, version, revision, jsonObject);
+        }
+    }
+
+    private <T> T sequenced(List<String> entityIds, Supplier<T> task) {
+        //writes to one entity commit and publish one at a time, so its events reach the feed in revision order;
+        //stripes are always taken in ascending order, so batches sharing some of them cannot deadlock
+        if (changeFeed == null) {
+            return task.get();
+        }
+        int[] stripes = entityIds.stream()
+                .mapToInt(entityId -> Math.floorMod(entityId.hashCode(), writeLocks.length))
+                .distinct()
+                .sorted()
+                .toArray();
+        int locked = 0;
+        try {
+            for (int stripe : stripes) {
+                writeLocks[stripe].lock();
+                locked++;
+            }
+            return task.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                writeLocks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    private void awaitWriteBehind(String entityId) {
+        //a synchronous write must not be overtaken by an earlier accepted create for the same entity
+        if (writeBehindQueue != null) {
+            writeBehindQueue.awaitFlushed(entityId);
+        }
+    }
+
+    private Optional<Long> write(String operation, String entityId, String writeToken, UpdateRequest updateRequest) {
+        //the update protocol reports nothing about what was applied, so the outcome is read back from the write's receipt
+        List<Node> receipts = takeSpentReceipts();
+        UpdateRequest request = getReceiptCleanupRequest(receipts);
+        updateRequest.getOperations().forEach(request::add);
+        Query query = QueryTransformOps.transform(writeReadbackTemplate, getWriteBindings(entityId, writeToken));
+        Optional<Long> revision;
+        try {
+            revision = connectionPool.calculate(getEntityType(), operation, conn -> Txn.calculateWrite(conn, () -> {
+                conn.update(request);
+                try (QueryExecution queryExecution = conn.query(query)) {
+                    ResultSet resultSet = queryExecution.execSelect();
+                    if (resultSet.hasNext()) {
+                        return Optional.of(resultSet.next().getLiteral("revision").getLong());
+                    } else {
+                        return Optional.<Long>empty();
+                    }
+                }
+            }));
+        } catch (RuntimeException ex) {
+            spentReceipts.addAll(receipts);
+            throw ex;
+        } finally {
+            invalidate(entityId);
+        }
+        if (revision.isPresent()) {
+            spentReceipts.add(getReceiptNode(writeToken));
+        }
+        return revision;
+    }
+
+    private List<Node> takeSpentReceipts() {
+        List<Node> receipts = new ArrayList<>();
+        for (Node receipt = spentReceipts.poll(); receipt != null; receipt = spentReceipts.poll()) {
+            receipts.add(receipt);
+        }
+        return receipts;
+    }
+
+    private UpdateRequest getReceiptCleanupRequest(List<Node> receipts) {
+        //receipts ride along with the next update, so removing them costs no extra round trip
+        UpdateRequest updateRequest = new UpdateRequest();
+        if (expiredReceiptsSwept.compareAndSet(false, true)) {
+            updateRequest.add(receiptCleanupTemplate);
+        }
+        receipts.forEach(receipt -> updateRequest.add(UpdateTransformOps.transform(receiptDeleteTemplate, Map.of(RECEIPT, receipt))));
+        return updateRequest;
+    }
+
+    Update getCreateOperation(String entityId, JsonObject jsonObject, String writeToken) {
+        Model model = buildModel(entityId, jsonObject);
+        try {
+            UpdateModify update = (UpdateModify) UpdateTransformOps.transform(createTemplate, getWriteBindings(entityId, writeToken));
+            model.getGraph().find().forEachRemaining(update.getInsertAcc()::addTriple);
+            return update;
+        } finally {
+            model.close();
+        }
+    }
+
+    Query getReadQuery(String entityId, Set<String> expand) {
+        Query template = readTemplates.computeIfAbsent(expand, key -> QueryFactory.create(
+                String.format("SELECT ?p ?o ?ep ?eo WHERE { ?s ?p ?o %s }", getExpansionPattern(key))));
+        return QueryTransformOps.transform(template, Map.of(SUBJECT, getEntityNode(entityId)));
+    }
+
+    Query getListQuery(Optional<String> cursor, OptionalInt limit, Set<String> expand) {
+        //one template per shape; expand is validated against the object properties, so there are few shapes
+        Query template = listTemplates.computeIfAbsent(List.of(cursor.isPresent(), limit.isPresent(), expand), key -> {
+            String cursorCondition = cursor.isPresent() ? "FILTER ( STR(?s) > ?cursor )" : "";
+            String subjectPattern = limit.isPresent()
+                    ? String.format("{ SELECT ?s WHERE { ?s a <%s> %s } ORDER BY ?s LIMIT 1 }", entityTypeUri, cursorCondition)
+                    : String.format("?s a <%s> . %s", entityTypeUri, cursorCondition);
+            String propertyConditions = expand.isEmpty()
+                    ? filterConditions
+                    : String.format("%s || ?p IN ( %s )", filterConditions, getPropertyList(expand));
+            return QueryFactory.create(String.format("SELECT ?s ?p ?o ?ep ?eo WHERE { %s ?s ?p ?o . FILTER ( %s ) %s } ORDER BY ?s",
+                    subjectPattern, propertyConditions, getExpansionPattern(expand)));
+        });
+        Query query = cursor
+                .map(entityId -> QueryTransformOps.transform(template, Map.of(CURSOR, NodeFactory.createLiteral(entityRootPath + entityId))))
+                .orElseGet(template::cloneQuery);
+        if (limit.isPresent()) {
+            //the transform copies the subquery, so its placeholder limit can be replaced without touching the template
+            ElementSubQuery subQuery = (ElementSubQuery) ((ElementGroup) query.getQueryPattern()).get(0);
+            subQuery.getQuery().setLimit(limit.getAsInt());
+        }
+        return query;
+    }
+
+    private UpdateRequest getGuardedRequest(String entityId, UpdateRequest updateRequest, List<String> expectedVersions) {
+        //every operation also requires the entity's current version to be one of those expected, where "*" only requires it to exist
+        Node entityNode = getEntityNode(entityId);
+        UpdateRequest guardedRequest = new UpdateRequest();
+        for (Update operation : updateRequest.getOperations()) {
+            UpdateModify update = (UpdateModify) operation;
+            ElementGroup pattern = new ElementGroup();
+            ((ElementGroup) update.getWherePattern()).getElements().forEach(pattern::addElement);
+            if (expectedVersions.contains("*")) {
+                pattern.addTriplePattern(Triple.create(entityNode, RDF.type.asNode(), NodeFactory.createURI(entityTypeUri)));
+            } else {
+                pattern.addTriplePattern(Triple.create(entityNode, NodeFactory.createURI(VERSION_URI), CURRENT_VERSION));
+                ExprList versions = new ExprList();
+                expectedVersions.forEach(version -> versions.add(NodeValue.makeString(version)));
+                pattern.addElementFilter(new ElementFilter(new E_OneOf(new ExprVar(CURRENT_VERSION), versions)));
+            }
+            update.setElement(pattern);
+            guardedRequest.add(update);
+        }
+        return guardedRequest;
+    }
+
+    private static Query getValuesQuery(Query template, List<Var> vars, List<Binding> bindings) {
+        //the VALUES block leads the pattern, as it would in a hand-written query, so each row drives an index lookup
+        ElementData data = new ElementData();
+        vars.forEach(data::add);
+        bindings.forEach(data::add);
+        ElementGroup pattern = new ElementGroup();
+        pattern.addElement(data);
+        ((ElementGroup) template.getQueryPattern()).getElements().forEach(pattern::addElement);
+        Query query = template.cloneQuery();
+        query.setQueryPattern(pattern);
+        return query;
+    }
+
+    private Map<Var, Node> getWriteBindings(String entityId, String writeToken) {
+        return Map.of(SUBJECT, getEntityNode(entityId), TOKEN, NodeFactory.createLiteral(writeToken), RECEIPT, getReceiptNode(writeToken));
+    }
+
+    private static Node getReceiptNode(String writeToken) {
+        return NodeFactory.createURI(RECEIPT_PREFIX + writeToken);
+    }
+
+    private Node getEntityNode(String entityId) {
+        return NodeFactory.createURI(entityRootPath + entityId);
+    }
+
+    private static Update parseUpdate(String format, Object... args) {
+        return UpdateFactory.create(String.format(format, args)).getOperations().get(0);
     }
 
     protected abstract Model buildModel(String id, JsonObject jsonObject);
 
-    protected abstract JsonObject buildJson(String id, Map<String, RDFNode> resultMap);
+    protected abstract EntityJsonSchema getJsonSchema();
 
     public abstract String getEntityType();
 
-    private String getResourceLocalName(RDFNode node) {
-        return node.asResource().getURI().replace(entityRootPath, "");
+    private class EntityAssembler {
+
+        //property values are slotted by their position in the schema rather than collected into a map
+        private final Node[] values = new Node[jsonSchema.size()];
+        private final Node[][] expandedValues = new Node[jsonSchema.size()][];
+
+        private Node subject;
+        private String entityId;
+        private String version;
+        private boolean empty = true;
+
+        private void reset(Node subject) {
+            this.subject = subject;
+            this.entityId = subject.getURI().substring(entityRootPath.length());
+            this.version = null;
+            this.empty = true;
+            Arrays.fill(values, null);
+            Arrays.fill(expandedValues, null);
+        }
+
+        private void accept(Binding binding) {
+            empty = false;
+            Node property = binding.get(PREDICATE);
+            Node value = binding.get(OBJECT);
+            if (VERSION_URI.equals(property.getURI())) {
+                version = value.getLiteralLexicalForm();
+                return;
+            }
+            int index = jsonSchema.getFieldIndex(property);
+            if (index < 0) {
+                return;
+            }
+            values[index] = value;
+            Node expandedProperty = binding.get(EXPANDED_PREDICATE);
+            if (expandedProperty != null) {
+                EntityJsonSchema relatedSchema = getRelatedGateway(index).jsonSchema;
+                if (expandedValues[index] == null) {
+                    expandedValues[index] = new Node[relatedSchema.size()];
+                }
+                int relatedIndex = relatedSchema.getFieldIndex(expandedProperty);
+                if (relatedIndex >= 0) {
+                    expandedValues[index][relatedIndex] = binding.get(EXPANDED_OBJECT);
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return empty;
+        }
+
+        private JsonObject build() {
+            JsonObjectBuilder builder = jsonSchema.createBuilder(entityId);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    continue;
+                }
+                if (expandedValues[i] != null) {
+                    builder.add(jsonSchema.getFieldName(i),
+                            getRelatedGateway(i).jsonSchema.build(jsonSchema.getObjectId(i, values[i]), expandedValues[i]));
+                } else {
+                    jsonSchema.add(builder, i, values[i]);
+                }
+            }
+            return builder.build();
+        }
+
+        private void write(JsonGenerator generator) {
+            generator.writeStartObject();
+            generator.write(jsonSchema.getIdField(), entityId);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    continue;
+                }
+                if (expandedValues[i] != null) {
+                    getRelatedGateway(i).jsonSchema.write(generator, jsonSchema.getFieldName(i),
+                            jsonSchema.getObjectId(i, values[i]), expandedValues[i]);
+                } else {
+                    jsonSchema.write(generator, i, values[i]);
+                }
+            }
+            generator.writeEnd();
+        }
+
+        private EntityGraphGateway getRelatedGateway(int index) {
+            return relatedGateways.get(objectProperties.get(jsonSchema.getFieldName(index)));
+        }
+    }
+
+    public static class EntityListing {
+
+        private final byte[] bytes;
+        private final int count;
+        private final String lastEntityId;
+
+        private EntityListing(byte[] bytes, int count, String lastEntityId) {
+            this.bytes = bytes;
+            this.count = count;
+            this.lastEntityId = lastEntityId;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        public Optional<String> getLastEntityId() {
+            return Optional.ofNullable(lastEntityId);
+        }
+    }
+
+    public static class VersionedEntity {
+
+        private final JsonObject json;
+        private final String version;
+
+        private VersionedEntity(JsonObject json, String version) {
+            this.json = json;
+            this.version = version;
+        }
+
+        public JsonObject getJson() {
+            return json;
+        }
+
+        public Optional<String> getVersion() {
+            return Optional.ofNullable(version);
+        }
     }
 
-    private String getPropertyLocalName(RDFNode node) {
-        return node.asResource().getURI().replace(NAMESPACE_PREFIX, "");
+    public enum CreateOutcome {
+        CREATED,
+        CONFLICT,
+        INVALID
     }
 
 }
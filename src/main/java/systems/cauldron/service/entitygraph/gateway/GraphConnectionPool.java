@@ -0,0 +1,270 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.pool.PoolStats;
+import org.apache.jena.atlas.web.HttpException;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.apache.jena.system.Txn;
+import systems.cauldron.service.entitygraph.gateway.util.RequestTiming;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+public abstract class GraphConnectionPool {
+
+    protected static final String PRIMARY_ENDPOINT = "primary";
+
+    private static final String PING_QUERY = "ASK {}";
+
+    private static final String STORE_TIMEOUT_MESSAGE = "Query timed out";
+
+    //set by the task itself, on the thread running it, so they are only ever seen by the call that set them
+    private static final ThreadLocal<Long> responseNanos = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> adHoc = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private MeterRegistry meterRegistry;
+    private CircuitBreaker circuitBreaker;
+
+    protected GraphConnectionPool(int maxConnections, int maxQueuedRequests, long idleTimeoutMillis) {
+        //one thread per pooled connection; callers queue here instead of holding a request thread while waiting on the database
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConnections, maxConnections, idleTimeoutMillis, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedRequests),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "graph-io-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public abstract RDFConnection connect();
+
+    public void execute(String entityType, String operation, Consumer<RDFConnection> task) {
+        calculate(entityType, operation, conn -> {
+            task.accept(conn);
+            return null;
+        });
+    }
+
+    public <T> T calculate(String entityType, String operation, Function<RDFConnection, T> task) {
+        return invoke(entityType, operation, PRIMARY_ENDPOINT, circuitBreaker, this::connect, task);
+    }
+
+    public void executeRead(String entityType, String operation, List<String> entityIds, Consumer<RDFConnection> task) {
+        //the task may write to the caller as it reads, so it runs exactly once, against a single endpoint
+        calculateRead(entityType, operation, entityIds, conn -> {
+            task.accept(conn);
+            return null;
+        }, false);
+    }
+
+    public void executeAdHocRead(String operation, Consumer<RDFConnection> task) {
+        //an ad-hoc query may run up to its own timeout, so it counts against the circuit when it fails but never for being slow
+        adHoc.set(true);
+        try {
+            executeRead("none", operation, List.of(), task);
+        } finally {
+            adHoc.remove();
+        }
+    }
+
+    public static void recordResponse() {
+        //called by a task that streams its results once the store has answered, so the time spent writing them out is not the store's
+        responseNanos.set(System.nanoTime());
+    }
+
+    public <T> T calculateRead(String entityType, String operation, List<String> entityIds, Function<RDFConnection, T> task) {
+        //the task must build its result without side effects, as it may be sent to more than one endpoint
+        return calculateRead(entityType, operation, entityIds, task, true);
+    }
+
+    protected <T> T calculateRead(String entityType, String operation, List<String> entityIds, Function<RDFConnection, T> task, boolean hedged) {
+        //a single endpoint serves reads as well as writes, unless a subclass has replicas to route them to
+        return calculate(entityType, operation, task);
+    }
+
+    public void recordWrite(String entityType, String entityId) {
+    }
+
+    public boolean isCacheable(String entityType, List<String> entityIds) {
+        //every read sees every committed write, so anything read may be cached
+        return true;
+    }
+
+    protected <T> T invoke(String entityType, String operation, String endpoint, CircuitBreaker breaker, Supplier<RDFConnection> connector,
+                           Function<RDFConnection, T> task) {
+        //every round trip to the store goes through here, so it is timed once, tagged with what it was for and where it went
+        if (breaker != null) {
+            breaker.acquirePermission();
+        }
+        long startNanos = System.nanoTime();
+        boolean error = false;
+        boolean failed = false;
+        responseNanos.remove();
+        try (RDFConnection conn = connector.get()) {
+            return task.apply(conn);
+        } catch (RuntimeException ex) {
+            //every exception is an error for the metrics, but only a failing store counts against the circuit
+            error = true;
+            failed = isStoreFailure(ex);
+            throw ex;
+        } finally {
+            Long respondedNanos = responseNanos.get();
+            responseNanos.remove();
+            long endNanos = respondedNanos != null ? respondedNanos : System.nanoTime();
+            long durationNanos = endNanos - startNanos;
+            if (breaker != null) {
+                if (adHoc.get() != null) {
+                    breaker.onResult(failed);
+                } else {
+                    breaker.onResult(durationNanos, failed);
+                }
+            }
+            if (meterRegistry != null) {
+                getTimer(entityType, operation, endpoint, error).record(durationNanos, TimeUnit.NANOSECONDS);
+            }
+            if (RequestTiming.current().isPresent()) {
+                RequestTiming.record(RequestTiming.Phase.DB, startNanos, endNanos, Map.of(
+                        "db.system", "sparql",
+                        "db.operation", operation,
+                        "entity", entityType,
+                        "endpoint", endpoint));
+            }
+        }
+    }
+
+    public boolean isReachable(long timeoutMillis) {
+        //a trivial query that still makes a full round trip, and counts as a trial call when the circuit is half-open
+        try {
+            return calculate("none", "ping", conn -> Txn.calculateRead(conn, () -> {
+                try (QueryExecution queryExecution = conn.query(PING_QUERY)) {
+                    queryExecution.setTimeout(timeoutMillis);
+                    return queryExecution.execAsk();
+                }
+            }));
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    public void checkAvailable() throws CircuitBreaker.OpenException {
+        if (circuitBreaker != null) {
+            circuitBreaker.checkPermitted();
+        }
+    }
+
+    public Optional<CircuitBreaker> getCircuitBreaker() {
+        return Optional.ofNullable(circuitBreaker);
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public abstract PoolStats getStats();
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public int getQueuedRequests() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveRequests() {
+        return executor.getActiveCount();
+    }
+
+    public int getMaxConnections() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+
+    protected static boolean isStoreFailure(RuntimeException ex) {
+        //only a store that cannot be reached, stops answering or fails on its side counts; a query hitting its own deadline,
+        //a request the store rejects, or the caller's output failing part way through says nothing about the store's health
+        int statusCode = getStatusCode(ex);
+        if (statusCode >= 500) {
+            return !isStoreTimeout(ex);
+        }
+        if (statusCode == -1 && (ex instanceof HttpException || ex instanceof QueryExceptionHTTP)) {
+            for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    return true;
+                }
+            }
+        }
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isStoreTimeout(Throwable ex) {
+        if (ex instanceof QueryExceptionHTTP && ((QueryExceptionHTTP) ex).getStatusCode() == 503) {
+            //Fuseki reports its own timeout as a 503 with this message; any other 503 is the store being unavailable
+            QueryExceptionHTTP httpException = (QueryExceptionHTTP) ex;
+            return Stream.of(httpException.getResponseMessage(), httpException.getResponse())
+                    .anyMatch(message -> message != null && message.contains(STORE_TIMEOUT_MESSAGE));
+        }
+        return false;
+    }
+
+    static boolean isRejected(RuntimeException ex) {
+        //the store refusing the request itself, which sending it again will not change
+        if (ex instanceof QueryParseException) {
+            return true;
+        }
+        int statusCode = getStatusCode(ex);
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+    }
+
+    private static int getStatusCode(RuntimeException ex) {
+        return ex instanceof QueryExceptionHTTP ? ((QueryExceptionHTTP) ex).getStatusCode()
+                : ex instanceof HttpException ? ((HttpException) ex).getStatusCode()
+                : -1;
+    }
+
+    private Timer getTimer(String entityType, String operation, String endpoint, boolean error) {
+        String outcome = error ? "error" : "success";
+        return timers.computeIfAbsent(entityType + "/" + operation + "/" + endpoint + "/" + outcome, key -> Timer.builder("graph.store.requests")
+                .description("Round trips to the graph store")
+                .tag("entity", entityType)
+                .tag("operation", operation)
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+}
@@ -1,20 +1,26 @@
 package systems.cauldron.service.entitygraph.gateway;
 
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.RDFNode;
-import systems.cauldron.service.entitygraph.gateway.util.EntityJsonBuilder;
+import systems.cauldron.service.entitygraph.gateway.util.EntityJsonSchema;
 import systems.cauldron.service.entitygraph.gateway.util.EntityModelBuilder;
 
 import javax.json.JsonObject;
 import java.util.Collections;
-import java.util.Map;
 
 public class PlaceGraphGateway extends EntityGraphGateway {
 
     public static final String ENTITY_TYPE = "place";
 
-    public PlaceGraphGateway(String graphEndpointUrl) {
-        super(graphEndpointUrl, ENTITY_TYPE, Collections.singleton("name"));
+    private static final EntityJsonSchema JSON_SCHEMA = new EntityJsonSchema(ENTITY_TYPE)
+            .addStringProperty("name")
+            .addIntegerProperty("zipcode")
+            .addStringProperty("city")
+            .addStringProperty("state")
+            .addStringProperty("county")
+            .addStringProperty("country");
+
+    public PlaceGraphGateway(GraphConnectionPool connectionPool) {
+        super(connectionPool, ENTITY_TYPE, Collections.singleton("name"), Collections.emptyMap());
     }
 
     @Override
@@ -30,15 +36,8 @@ public class PlaceGraphGateway extends EntityGraphGateway {
     }
 
     @Override
-    protected JsonObject buildJson(String id, Map<String, RDFNode> resultMap) {
-        EntityJsonBuilder builder = new EntityJsonBuilder(ENTITY_TYPE, id, resultMap);
-        builder.addStringProperty("name")
-                .addIntegerProperty("zipcode")
-                .addStringProperty("city")
-                .addStringProperty("state")
-                .addStringProperty("county")
-                .addStringProperty("country");
-        return builder.build();
+    protected EntityJsonSchema getJsonSchema() {
+        return JSON_SCHEMA;
     }
 
     @Override
@@ -1,34 +1,218 @@
 package systems.cauldron.service.entitygraph.gateway;
 
+import org.apache.jena.atlas.lib.Alarm;
+import org.apache.jena.atlas.lib.AlarmClock;
 import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
 import org.apache.jena.query.QueryException;
+import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryFactory;
-import org.apache.jena.query.ResultSetFormatter;
-import org.apache.jena.rdfconnection.RDFConnection;
-import org.apache.jena.rdfconnection.RDFConnectionFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.apache.jena.sparql.engine.http.QueryEngineHTTP;
 import org.apache.jena.system.Txn;
+import systems.cauldron.service.entitygraph.gateway.util.QueryResultCache;
 
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class QueryGraphGateway {
 
-    private final String endpointUrl;
+    private final GraphConnectionPool connectionPool;
+    private final QueryResultCache cache;
 
-    public QueryGraphGateway(String endpointUrl) {
-        this.endpointUrl = endpointUrl;
+    public QueryGraphGateway(GraphConnectionPool connectionPool, QueryResultCache cache) {
+        this.connectionPool = connectionPool;
+        this.cache = cache;
     }
 
-    public void query(String queryString, OutputStream outputStream) throws QueryException, IllegalArgumentException {
+    public static Query parse(String queryString) throws QueryException, IllegalArgumentException {
         Query query = QueryFactory.create(queryString);
         if (!query.isSelectType()) {
             throw new IllegalArgumentException("provided query string is not a SPARQL SELECT statement");
         }
-        try (RDFConnection conn = RDFConnectionFactory.connect(endpointUrl)) {
-            Txn.executeRead(conn, () -> {
-                conn.queryResultSet(query, qr -> {
-                    ResultSetFormatter.outputAsJSON(outputStream, qr);
-                });
-            });
+        return query;
+    }
+
+    public void query(Query query, ResultFormat format, OutputStream outputStream, long timeoutMillis) throws QueryCancelledException {
+        connectionPool.executeAdHocRead("query", conn -> Txn.executeRead(conn, () -> {
+            try (QueryExecution queryExecution = conn.query(query)) {
+                //ARQ enforces the timeout in process; a remote Fuseki is also asked to, and honours it if configured to allow overrides
+                queryExecution.setTimeout(timeoutMillis);
+                if (queryExecution instanceof QueryEngineHTTP) {
+                    ((QueryEngineHTTP) queryExecution).addParam("timeout", String.valueOf(timeoutMillis / 1000.0));
+                }
+                //the deadline covers the whole response, including time spent writing rows to a slow client
+                AtomicBoolean expired = new AtomicBoolean();
+                Alarm alarm = AlarmClock.get().add(() -> {
+                    expired.set(true);
+                    queryExecution.abort();
+                }, timeoutMillis);
+                try {
+                    //rows are written as they are read from the connection, so the result set is never held in memory
+                    ResultSet resultSet = queryExecution.execSelect();
+                    //an embedded store only evaluates the query as it is iterated, so its answer is the first row
+                    resultSet.hasNext();
+                    GraphConnectionPool.recordResponse();
+                    format.write(resultSet, outputStream);
+                } catch (RuntimeException ex) {
+                    //stop the execution rather than draining it when the client has gone away or the write failed
+                    queryExecution.abort();
+                    if (expired.get() || isTimeout(ex)) {
+                        throw new QueryCancelledException();
+                    }
+                    throw ex;
+                } finally {
+                    AlarmClock.get().cancel(alarm);
+                }
+            }
+        }));
+    }
+
+    public Optional<QueryResultCache.Result> queryCached(Query query, ResultFormat format, long timeoutMillis) throws QueryCancelledException {
+        if (cache == null) {
+            return Optional.empty();
+        }
+        //the parsed query is reserialized so that formatting differences between equivalent query strings share an entry
+        String key = format.name() + "\n" + query.serialize();
+        Optional<QueryResultCache.Result> cached = cache.get(key);
+        if (cached.isPresent()) {
+            return cached.get().getBytes() != null ? cached : Optional.empty();
+        }
+        long generation = cache.getGeneration();
+        if (!connectionPool.isCacheable("none", List.of())) {
+            //streamed instead, as a replica that has yet to catch up with a write would leave a stale result for everyone
+            return Optional.empty();
+        }
+        BoundedOutputStream outputStream = new BoundedOutputStream(cache.getMaxEntryBytes());
+        try {
+            query(query, format, outputStream, timeoutMillis);
+        } catch (RuntimeException ex) {
+            if (outputStream.overflowed) {
+                //remember that this result is too large to hold, so the next request streams it without a wasted attempt
+                cache.put(key, null, generation);
+                return Optional.empty();
+            }
+            throw ex;
+        }
+        return Optional.of(cache.put(key, outputStream.toByteArray(), generation));
+    }
+
+    private static boolean isTimeout(Throwable ex) {
+        if (ex instanceof QueryCancelledException) {
+            return true;
+        }
+        if (GraphConnectionPool.isStoreTimeout(ex)) {
+            return true;
+        }
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public enum ResultFormat {
+
+        JSON(ResultSetLang.SPARQLResultSetJSON),
+        CSV(ResultSetLang.SPARQLResultSetCSV),
+        TSV(ResultSetLang.SPARQLResultSetTSV),
+        THRIFT(ResultSetLang.SPARQLResultSetThrift),
+        NDJSON(null);
+
+        private final Lang lang;
+
+        ResultFormat(Lang lang) {
+            this.lang = lang;
+        }
+
+        private void write(ResultSet resultSet, OutputStream outputStream) {
+            if (lang != null) {
+                ResultSetMgr.write(outputStream, resultSet, lang);
+            } else {
+                writeRows(resultSet, outputStream);
+            }
+        }
+
+        private static void writeRows(ResultSet resultSet, OutputStream outputStream) {
+            //one object per solution, with each bound variable encoded as in the SPARQL JSON results format
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            try {
+                while (resultSet.hasNext()) {
+                    QuerySolution qs = resultSet.next();
+                    JsonObjectBuilder row = Json.createObjectBuilder();
+                    qs.varNames().forEachRemaining(varName -> row.add(varName, getBinding(qs.get(varName))));
+                    writer.write(row.build().toString());
+                    writer.write('\n');
+                }
+                writer.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private static JsonObjectBuilder getBinding(RDFNode node) {
+            JsonObjectBuilder binding = Json.createObjectBuilder();
+            if (node.isURIResource()) {
+                return binding.add("type", "uri").add("value", node.asResource().getURI());
+            }
+            if (node.isAnon()) {
+                return binding.add("type", "bnode").add("value", node.asResource().getId().getLabelString());
+            }
+            Literal literal = node.asLiteral();
+            binding.add("type", "literal").add("value", literal.getLexicalForm());
+            if (!literal.getLanguage().isEmpty()) {
+                binding.add("xml:lang", literal.getLanguage());
+            } else if (literal.getDatatypeURI() != null) {
+                binding.add("datatype", literal.getDatatypeURI());
+            }
+            return binding;
+        }
+    }
+
+    private static class BoundedOutputStream extends ByteArrayOutputStream {
+
+        private final long maxBytes;
+        private boolean overflowed;
+
+        private BoundedOutputStream(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            ensureCapacity(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            super.write(b, off, len);
+        }
+
+        private void ensureCapacity(int len) {
+            if (size() + len > maxBytes) {
+                overflowed = true;
+                throw new IllegalStateException("query result exceeds " + maxBytes + " bytes");
+            }
         }
     }
 
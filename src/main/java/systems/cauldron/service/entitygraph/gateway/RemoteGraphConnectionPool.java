@@ -0,0 +1,213 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.jena.rdfconnection.RDFConnection;
+import org.apache.jena.rdfconnection.RDFConnectionRemote;
+import org.apache.jena.riot.WebContent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class RemoteGraphConnectionPool extends GraphConnectionPool {
+
+    private final String endpointUrl;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    private ReplicaSet replicaSet;
+
+    public RemoteGraphConnectionPool(String endpointUrl, int maxConnections, int maxQueuedRequests, long acquireTimeoutMillis, long connectTimeoutMillis,
+                                     long socketTimeoutMillis, long idleTimeoutMillis, long validateAfterInactivityMillis) {
+        super(maxConnections, maxQueuedRequests, idleTimeoutMillis);
+        this.endpointUrl = endpointUrl;
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnections);
+        //a pooled socket may have been closed by the server while idle, so one that has sat unused is checked before it is leased
+        this.connectionManager.setValidateAfterInactivity(Math.toIntExact(validateAfterInactivityMillis));
+        this.httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                //only a request that never got fully sent is resent; an update the store may already have applied must not be repeated
+                .setRetryHandler(new DefaultHttpRequestRetryHandler(1, false))
+                //without a socket timeout a stalled store would hold a connection, and the thread waiting on it, indefinitely
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Math.toIntExact(acquireTimeoutMillis))
+                        .setConnectTimeout(Math.toIntExact(connectTimeoutMillis))
+                        .setSocketTimeout(Math.toIntExact(socketTimeoutMillis))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public RDFConnection connect() {
+        return connect(endpointUrl);
+    }
+
+    @Override
+    protected <T> T calculateRead(String entityType, String operation, List<String> entityIds, Function<RDFConnection, T> task, boolean hedged) {
+        if (replicaSet == null || replicaSet.isSticky()) {
+            return calculate(entityType, operation, task);
+        }
+        Optional<ReplicaSet.Replica> replica = replicaSet.select(null);
+        if (replica.isEmpty()) {
+            //every replica's circuit is open, so the primary serves reads until one recovers
+            return calculate(entityType, operation, task);
+        }
+        OptionalLong hedgeDelayNanos = hedged ? replicaSet.getHedgeDelayNanos() : OptionalLong.empty();
+        if (hedgeDelayNanos.isEmpty()) {
+            return calculateOnReplica(replica.get(), entityType, operation, task, hedged);
+        }
+        return calculateHedged(replica.get(), hedgeDelayNanos.getAsLong(), entityType, operation, task);
+    }
+
+    @Override
+    public void recordWrite(String entityType, String entityId) {
+        if (replicaSet != null) {
+            replicaSet.recordWrite(entityType, entityId);
+        }
+    }
+
+    @Override
+    public boolean isCacheable(String entityType, List<String> entityIds) {
+        //a replica that has yet to apply a recent write would otherwise leave the cache stale for the writer and everyone else
+        return replicaSet == null || replicaSet.isSticky() || replicaSet.isCaughtUp(entityType, entityIds);
+    }
+
+    private <T> T calculateOnReplica(ReplicaSet.Replica replica, String entityType, String operation, Function<RDFConnection, T> task,
+                                     boolean repeatable) {
+        long startNanos = System.nanoTime();
+        replica.begin();
+        try {
+            T result = invoke(entityType, operation, replica.getName(), replica.getCircuitBreaker(), () -> connect(replica.getEndpointUrl()), task);
+            replicaSet.recordLatency(System.nanoTime() - startNanos);
+            return result;
+        } catch (CircuitBreaker.OpenException ex) {
+            //the replica's circuit opened after it was selected, so the task never ran
+        } catch (RuntimeException ex) {
+            //a task that writes to the caller as it reads may already have written part of its output, so it is never run twice
+            if (!repeatable || !isStoreFailure(ex)) {
+                throw ex;
+            }
+        } finally {
+            replica.end();
+        }
+        //a replica that cannot answer is retried once on the primary, which has every write
+        return calculate(entityType, operation, task);
+    }
+
+    private <T> T calculateHedged(ReplicaSet.Replica replica, long hedgeDelayNanos, String entityType, String operation,
+                                  Function<RDFConnection, T> task) {
+        Optional<CompletableFuture<T>> attempt = replicaSet.submit(() -> calculateOnReplica(replica, entityType, operation, task, true));
+        if (attempt.isEmpty()) {
+            return calculateOnReplica(replica, entityType, operation, task, true);
+        }
+        try {
+            return attempt.get().get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            //slower than most reads, so the same read is sent to another replica and whichever answers first is used
+        } catch (ExecutionException ex) {
+            throw getCause(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+        Optional<CompletableFuture<T>> hedge = replicaSet.select(replica)
+                .flatMap(other -> replicaSet.submit(() -> calculateOnReplica(other, entityType, operation, task, true)));
+        if (hedge.isEmpty()) {
+            return await(attempt.get());
+        }
+        replicaSet.onHedged();
+        //the slower attempt is left to finish on its own; its result is discarded
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        List.of(attempt.get(), hedge.get()).forEach(future -> future.whenComplete((result, ex) -> {
+            if (ex == null) {
+                if (first.complete(result) && future == hedge.get()) {
+                    replicaSet.onHedgeWon();
+                }
+            } else if (failures.incrementAndGet() == 2) {
+                first.completeExceptionally(ex);
+            }
+        }));
+        return await(first);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            throw getCause(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+
+    private static RuntimeException getCause(ExecutionException ex) {
+        Throwable cause = ex.getCause() instanceof CompletionException ? ex.getCause().getCause() : ex.getCause();
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+    }
+
+    private RDFConnection connect(String endpointUrl) {
+        //closing the returned connection leaves the shared HTTP client and its pooled sockets open
+        //SELECT results are requested as Thrift, which is compact and parsed incrementally rather than as one document
+        return RDFConnectionRemote.create()
+                .destination(endpointUrl)
+                .httpClient(httpClient)
+                .acceptHeaderSelectQuery(WebContent.contentTypeResultsThrift)
+                .build();
+    }
+
+    public String getEndpointUrl() {
+        return endpointUrl;
+    }
+
+    public Optional<ReplicaSet> getReplicaSet() {
+        return Optional.ofNullable(replicaSet);
+    }
+
+    public void setReplicaSet(ReplicaSet replicaSet) {
+        //each replica is a separate route, with as many connections as the primary
+        this.replicaSet = replicaSet;
+        connectionManager.setMaxTotal(connectionManager.getDefaultMaxPerRoute() * (1 + replicaSet.getReplicas().size()));
+    }
+
+    @Override
+    public PoolStats getStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (replicaSet != null) {
+            replicaSet.close();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
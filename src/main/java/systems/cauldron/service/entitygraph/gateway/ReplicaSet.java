@@ -0,0 +1,227 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import systems.cauldron.service.entitygraph.gateway.util.ReadYourWrites;
+import systems.cauldron.service.entitygraph.gateway.util.RequestTiming;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ReplicaSet {
+
+    private static final String ANY_ENTITY = "*";
+    private static final int LATENCY_SAMPLES = 1000;
+    private static final int MINIMUM_LATENCY_SAMPLES = 100;
+    private static final int LATENCY_PERCENTILE = 95;
+    private static final int RECALCULATION_INTERVAL = 50;
+    private static final int MAX_RECENT_WRITES = 10000;
+
+    private final List<Replica> replicas;
+    private final long readYourWritesMillis;
+    private final long readYourWritesNanos;
+    private final long hedgeMinDelayNanos;
+    private final ThreadPoolExecutor hedgeExecutor;
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong hedgedCount = new AtomicLong();
+    private final AtomicLong hedgeWonCount = new AtomicLong();
+
+    //latencies of the most recent replica reads, overwritten in a ring
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyPosition;
+    private int latencyCount;
+    private volatile long hedgeDelayNanos = -1;
+
+    public ReplicaSet(List<String> endpointUrls, long readYourWritesMillis, boolean hedging, long hedgeMinDelayMillis, int maxHedgedRequests,
+                      Supplier<CircuitBreaker> circuitBreakerFactory) {
+        this.replicas = IntStream.range(0, endpointUrls.size())
+                .mapToObj(i -> new Replica("replica-" + i, endpointUrls.get(i), circuitBreakerFactory.get()))
+                .collect(Collectors.toUnmodifiableList());
+        this.readYourWritesMillis = readYourWritesMillis;
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMillis);
+        if (hedging) {
+            //attempts run here so the caller can stop waiting on a slow one; there is no queue, a busy executor just means no hedge
+            AtomicInteger threadCount = new AtomicInteger();
+            this.hedgeExecutor = new ThreadPoolExecutor(0, maxHedgedRequests, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "graph-hedge-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            this.hedgeExecutor = null;
+        }
+    }
+
+    public Optional<Replica> select(Replica excluded) {
+        //least outstanding requests, starting from a rotating position so that ties are spread evenly
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        Replica selected = null;
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica == excluded || !replica.isAvailable()) {
+                continue;
+            }
+            if (selected == null || replica.getOutstandingRequests() < selected.getOutstandingRequests()) {
+                selected = replica;
+            }
+        }
+        return Optional.ofNullable(selected);
+    }
+
+    public boolean isSticky() {
+        //replicas lag the primary, so a client that wrote moments ago reads from the primary; everyone else is served by replicas
+        return readYourWritesMillis > 0 && ReadYourWrites.current().map(session -> session.isSticky(readYourWritesMillis)).orElse(false);
+    }
+
+    public boolean isCaughtUp(String entityType, List<String> entityIds) {
+        //whether the replicas can be taken to have every write the read depends on, which decides if a shared cache may keep it
+        if (readYourWritesNanos <= 0 || recentWrites.isEmpty()) {
+            return true;
+        }
+        if ("none".equals(entityType)) {
+            //an ad-hoc query, which may touch anything
+            return !isRecent(ANY_ENTITY);
+        }
+        if (entityIds.isEmpty()) {
+            return !isRecent(entityType);
+        }
+        return entityIds.stream().noneMatch(entityId -> isRecent(entityType + "/" + entityId));
+    }
+
+    public void recordWrite(String entityType, String entityId) {
+        if (readYourWritesNanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + readYourWritesNanos;
+        if (recentWrites.size() >= MAX_RECENT_WRITES) {
+            long now = System.nanoTime();
+            recentWrites.values().removeIf(expiry -> expiry - now <= 0);
+        }
+        //the entity itself, listings of its type, and ad-hoc queries and traversals, which may touch anything
+        recentWrites.put(entityType + "/" + entityId, deadline);
+        recentWrites.put(entityType, deadline);
+        recentWrites.put(ANY_ENTITY, deadline);
+        //only the writing client is held to the primary; a write made outside of a request, such as a write-behind flush, holds no one
+        ReadYourWrites.current().ifPresent(session -> session.recordWrite(readYourWritesMillis));
+    }
+
+    public void recordLatency(long durationNanos) {
+        long[] window = null;
+        synchronized (latencies) {
+            latencies[latencyPosition] = durationNanos;
+            latencyPosition = (latencyPosition + 1) % latencies.length;
+            latencyCount = Math.min(latencyCount + 1, latencies.length);
+            if (latencyCount >= MINIMUM_LATENCY_SAMPLES && latencyPosition % RECALCULATION_INTERVAL == 0) {
+                window = Arrays.copyOf(latencies, latencyCount);
+            }
+        }
+        if (window != null) {
+            Arrays.sort(window);
+            long percentile = window[Math.min(window.length - 1, window.length * LATENCY_PERCENTILE / 100)];
+            hedgeDelayNanos = Math.max(hedgeMinDelayNanos, percentile);
+        }
+    }
+
+    public OptionalLong getHedgeDelayNanos() {
+        //no hedging until enough reads have been seen to say what slow means
+        long delay = hedgeDelayNanos;
+        return hedgeExecutor == null || delay < 0 ? OptionalLong.empty() : OptionalLong.of(delay);
+    }
+
+    public <T> Optional<CompletableFuture<T>> submit(Supplier<T> attempt) {
+        try {
+            return Optional.of(CompletableFuture.supplyAsync(RequestTiming.propagate(attempt), hedgeExecutor));
+        } catch (RejectedExecutionException ex) {
+            return Optional.empty();
+        }
+    }
+
+    public void onHedged() {
+        hedgedCount.incrementAndGet();
+    }
+
+    public void onHedgeWon() {
+        hedgeWonCount.incrementAndGet();
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    public long getHedgeWonCount() {
+        return hedgeWonCount.get();
+    }
+
+    public void close() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+        }
+    }
+
+    private boolean isRecent(String key) {
+        Long deadline = recentWrites.get(key);
+        return deadline != null && deadline - System.nanoTime() > 0;
+    }
+
+    public static class Replica {
+
+        private final String name;
+        private final String endpointUrl;
+        private final CircuitBreaker circuitBreaker;
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+
+        Replica(String name, String endpointUrl, CircuitBreaker circuitBreaker) {
+            this.name = name;
+            this.endpointUrl = endpointUrl;
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEndpointUrl() {
+            return endpointUrl;
+        }
+
+        public CircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        public int getOutstandingRequests() {
+            return outstandingRequests.get();
+        }
+
+        public boolean isAvailable() {
+            return circuitBreaker == null || circuitBreaker.getState() != CircuitBreaker.State.OPEN;
+        }
+
+        void begin() {
+            outstandingRequests.incrementAndGet();
+        }
+
+        void end() {
+            outstandingRequests.decrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.system.Txn;
+import systems.cauldron.service.entitygraph.gateway.util.EntityStreamWriter;
+import systems.cauldron.service.entitygraph.resource.EntityResourceFactory;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+public class TraversalGraphGateway {
+
+    public enum Direction {
+        OUT, IN, BOTH
+    }
+
+    private static final Var NODE = Var.alloc("n");
+    private static final Var EDGE = Var.alloc("edge");
+    private static final Var OUTBOUND = Var.alloc("out");
+    private static final Var INBOUND = Var.alloc("in");
+
+    private final GraphConnectionPool connectionPool;
+    private final List<String> entityTypes;
+    private final Set<String> edgeTypes;
+    private final int maxDepth;
+    private final int maxNodes;
+    private final int frontierBatchSize;
+    private final Map<List<Object>, Query> hopTemplates = new ConcurrentHashMap<>();
+
+    public TraversalGraphGateway(GraphConnectionPool connectionPool, List<EntityGraphGateway> gateways, int maxDepth, int maxNodes,
+                                 int frontierBatchSize) {
+        this.connectionPool = connectionPool;
+        this.entityTypes = gateways.stream()
+                .map(EntityGraphGateway::getEntityType)
+                .collect(Collectors.toUnmodifiableList());
+        //the edges are the object properties of every entity type, followed in either direction
+        this.edgeTypes = gateways.stream()
+                .flatMap(gateway -> gateway.getObjectProperties().keySet().stream())
+                .collect(Collectors.toUnmodifiableSet());
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.frontierBatchSize = frontierBatchSize;
+    }
+
+    public List<String> getEntityTypes() {
+        return entityTypes;
+    }
+
+    public Set<String> getEdgeTypes() {
+        return edgeTypes;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public void neighbors(String entityType, String entityId, int depth, Set<String> edges, Direction direction, int limit,
+                          EntityStreamWriter writer) {
+        //breadth first, one query per batch of the frontier rather than one per node, with each hop written out as it is found
+        Step start = new Step(entityType, entityId, 0, null, false, null);
+        Map<String, Step> visited = new HashMap<>();
+        visited.put(start.getUri(), start);
+        List<Step> frontier = List.of(start);
+        int bound = Math.min(limit, maxNodes);
+        int[] count = {0};
+        for (int hop = 1; hop <= Math.min(depth, maxDepth) && !frontier.isEmpty() && count[0] < bound; hop++) {
+            List<Step> next = new ArrayList<>();
+            expand(frontier, edges, direction, "neighbors", step -> {
+                if (visited.putIfAbsent(step.getUri(), step) != null) {
+                    return true;
+                }
+                next.add(step);
+                step.write(writer.next(step.entityId));
+                return ++count[0] < bound;
+            });
+            frontier = next;
+        }
+    }
+
+    public Optional<JsonObject> path(String fromType, String fromId, String toType, String toId, int depth, Set<String> edges) {
+        Step source = new Step(fromType, fromId, 0, null, false, null);
+        Step target = new Step(toType, toId, 0, null, false, null);
+        if (source.getUri().equals(target.getUri())) {
+            return Optional.of(getPath(List.of(source)));
+        }
+        //searched from both ends at once, always growing the smaller frontier, so each side only has to cover half the distance
+        Map<String, Step> forward = new HashMap<>(Map.of(source.getUri(), source));
+        Map<String, Step> backward = new HashMap<>(Map.of(target.getUri(), target));
+        List<Step> forwardFrontier = List.of(source);
+        List<Step> backwardFrontier = List.of(target);
+        int hops = 0;
+        while (hops < Math.min(depth, maxDepth) && !forwardFrontier.isEmpty() && !backwardFrontier.isEmpty()
+                && forward.size() + backward.size() < maxNodes) {
+            boolean forwards = forwardFrontier.size() <= backwardFrontier.size();
+            Map<String, Step> visited = forwards ? forward : backward;
+            Map<String, Step> opposite = forwards ? backward : forward;
+            List<Step> next = new ArrayList<>();
+            String[] meeting = {null};
+            expand(forwards ? forwardFrontier : backwardFrontier, edges, Direction.BOTH, "path", step -> {
+                if (visited.putIfAbsent(step.getUri(), step) != null) {
+                    return true;
+                }
+                next.add(step);
+                //the whole hop is read before choosing, since the nearest meeting point on the other side gives the shortest path
+                Step other = opposite.get(step.getUri());
+                if (other != null && (meeting[0] == null || other.depth < opposite.get(meeting[0]).depth)) {
+                    meeting[0] = step.getUri();
+                }
+                return forward.size() + backward.size() < maxNodes;
+            });
+            if (meeting[0] != null) {
+                return Optional.of(getPath(join(forward.get(meeting[0]), backward.get(meeting[0]))));
+            }
+            if (forwards) {
+                forwardFrontier = next;
+            } else {
+                backwardFrontier = next;
+            }
+            hops++;
+        }
+        return Optional.empty();
+    }
+
+    private void expand(List<Step> frontier, Set<String> edges, Direction direction, String operation, Predicate<Step> consumer) {
+        Query template = getHopTemplate(edges, direction);
+        for (int i = 0; i < frontier.size(); i += frontierBatchSize) {
+            List<Step> batch = frontier.subList(i, Math.min(i + frontierBatchSize, frontier.size()));
+            Map<Node, Step> steps = new HashMap<>();
+            batch.forEach(step -> steps.put(step.getNode(), step));
+            Query query = getValuesQuery(template, batch.stream()
+                    .map(step -> BindingFactory.binding(NODE, step.getNode()))
+                    .collect(Collectors.toList()));
+            boolean[] stopped = {false};
+            //solutions are consumed as they arrive, so a bound that is reached part way through a hop ends the read there
+            connectionPool.executeRead("none", operation, List.of(), conn -> Txn.executeRead(conn, () -> {
+                try (QueryExecution queryExecution = conn.query(query)) {
+                    ResultSet resultSet = queryExecution.execSelect();
+                    while (resultSet.hasNext()) {
+                        Binding binding = resultSet.nextBinding();
+                        boolean inbound = binding.contains(INBOUND);
+                        Node neighbor = binding.get(inbound ? INBOUND : OUTBOUND);
+                        Optional<Step> step = getStep(neighbor, steps.get(binding.get(NODE)), binding.get(EDGE), inbound);
+                        if (step.isPresent() && !consumer.test(step.get())) {
+                            stopped[0] = true;
+                            return;
+                        }
+                    }
+                }
+            }));
+            if (stopped[0]) {
+                return;
+            }
+        }
+    }
+
+    private Optional<Step> getStep(Node neighbor, Step previous, Node edge, boolean inbound) {
+        //anything outside the entity namespaces, such as a dangling reference to an unknown type, is not followed
+        if (previous == null || !neighbor.isURI()) {
+            return Optional.empty();
+        }
+        String uri = neighbor.getURI();
+        String edgeType = edge.getURI().substring(EntityGraphGateway.NAMESPACE_PREFIX.length());
+        for (String entityType : entityTypes) {
+            String rootPath = EntityResourceFactory.getEntityRootPath(entityType);
+            if (uri.startsWith(rootPath) && uri.length() > rootPath.length()) {
+                return Optional.of(new Step(entityType, uri.substring(rootPath.length()), previous.depth + 1, edgeType, inbound, previous));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Query getHopTemplate(Set<String> edges, Direction direction) {
+        Set<String> edgeSet = edges.isEmpty() ? edgeTypes : edges;
+        return hopTemplates.computeIfAbsent(List.of(new TreeSet<>(edgeSet), direction), key -> {
+            String filter = String.format("FILTER ( ?edge IN ( %s ) )", edgeSet.stream()
+                    .sorted()
+                    .map(edgeType -> "<" + EntityGraphGateway.NAMESPACE_PREFIX + edgeType + ">")
+                    .collect(Collectors.joining(", ")));
+            String outbound = String.format("{ ?n ?edge ?out %s }", filter);
+            String inbound = String.format("{ ?in ?edge ?n %s }", filter);
+            String pattern;
+            switch (direction) {
+                case OUT:
+                    pattern = outbound;
+                    break;
+                case IN:
+                    pattern = inbound;
+                    break;
+                default:
+                    pattern = outbound + " UNION " + inbound;
+            }
+            return QueryFactory.create("SELECT ?n ?edge ?out ?in WHERE { " + pattern + " }");
+        });
+    }
+
+    private static Query getValuesQuery(Query template, List<Binding> bindings) {
+        //the VALUES block leads the pattern, so the whole frontier is looked up in a single round trip
+        ElementData data = new ElementData();
+        data.add(NODE);
+        bindings.forEach(data::add);
+        ElementGroup pattern = new ElementGroup();
+        pattern.addElement(data);
+        ((ElementGroup) template.getQueryPattern()).getElements().forEach(pattern::addElement);
+        Query query = template.cloneQuery();
+        query.setQueryPattern(pattern);
+        return query;
+    }
+
+    private static List<Step> join(Step forward, Step backward) {
+        LinkedList<Step> path = new LinkedList<>();
+        for (Step step = forward; step != null; step = step.previous) {
+            path.addFirst(step);
+        }
+        //the backward half was found from the target, so each of its edges is crossed the other way round
+        for (Step step = backward; step.previous != null; step = step.previous) {
+            Step previous = step.previous;
+            path.addLast(new Step(previous.entityType, previous.entityId, path.size(), step.edgeType, !step.inbound, path.getLast()));
+        }
+        return path;
+    }
+
+    private static JsonObject getPath(List<Step> steps) {
+        JsonArrayBuilder path = Json.createArrayBuilder();
+        steps.forEach(step -> path.add(step.toJson()));
+        return Json.createObjectBuilder()
+                .add("length", steps.size() - 1)
+                .add("path", path)
+                .build();
+    }
+
+    private static class Step {
+
+        private final String entityType;
+        private final String entityId;
+        private final int depth;
+        private final String edgeType;
+        private final boolean inbound;
+        private final Step previous;
+
+        private Step(String entityType, String entityId, int depth, String edgeType, boolean inbound, Step previous) {
+            this.entityType = entityType;
+            this.entityId = entityId;
+            this.depth = depth;
+            this.edgeType = edgeType;
+            this.inbound = inbound;
+            this.previous = previous;
+        }
+
+        private String getUri() {
+            return EntityResourceFactory.getEntityPath(entityType, entityId);
+        }
+
+        private Node getNode() {
+            return NodeFactory.createURI(getUri());
+        }
+
+        private JsonObjectBuilder toJson() {
+            //the edge is the one crossed to get here: "out" from the previous entity's property, "in" from this entity's own
+            JsonObjectBuilder builder = Json.createObjectBuilder()
+                    .add("entityType", entityType)
+                    .add("entityId", entityId);
+            if (previous != null) {
+                builder.add("edge", edgeType).add("direction", inbound ? "in" : "out");
+            }
+            return builder;
+        }
+
+        private void write(JsonGenerator generator) {
+            generator.writeStartObject()
+                    .write("entityType", entityType)
+                    .write("entityId", entityId)
+                    .write("depth", depth)
+                    .write("edge", edgeType)
+                    .write("direction", inbound ? "in" : "out")
+                    .writeStartObject("from")
+                    .write("entityType", previous.entityType)
+                    .write("entityId", previous.entityId)
+                    .writeEnd()
+                    .writeEnd();
+        }
+    }
+
+}
@@ -1,12 +1,10 @@
 package systems.cauldron.service.entitygraph.gateway;
 
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.RDFNode;
-import systems.cauldron.service.entitygraph.gateway.util.EntityJsonBuilder;
+import systems.cauldron.service.entitygraph.gateway.util.EntityJsonSchema;
 import systems.cauldron.service.entitygraph.gateway.util.EntityModelBuilder;
 
 import javax.json.JsonObject;
-import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -14,32 +12,31 @@ public class TripGraphGateway extends EntityGraphGateway {
 
     public static final String ENTITY_TYPE = "trip";
 
-    public TripGraphGateway(String graphEndpointUrl) {
-        super(graphEndpointUrl, ENTITY_TYPE, Stream.of("userId", "departureDateTime").collect(Collectors.toSet()));
+    private static final EntityJsonSchema JSON_SCHEMA = new EntityJsonSchema(ENTITY_TYPE)
+            .addObjectProperty("userId", UserGraphGateway.ENTITY_TYPE)
+            .addObjectProperty("origin", PlaceGraphGateway.ENTITY_TYPE)
+            .addObjectProperty("destination", PlaceGraphGateway.ENTITY_TYPE)
+            .addStringProperty("departureDateTime")
+            .addStringProperty("arrivalDateTime")
+            .addStringProperty("purpose");
+
+    public TripGraphGateway(GraphConnectionPool connectionPool) {
+        super(connectionPool, ENTITY_TYPE, Stream.of("userId", "departureDateTime").collect(Collectors.toSet()), JSON_SCHEMA.getObjectProperties());
     }
 
     @Override
     protected Model buildModel(String id, JsonObject jsonObject) {
         EntityModelBuilder builder = new EntityModelBuilder(ENTITY_TYPE, id, jsonObject);
-        builder.addObjectProperty("userId", "user")
-                .addObjectProperty("origin", "place")
-                .addObjectProperty("destination", "place")
-                .addTimestampProperty("departureDateTime")
+        JSON_SCHEMA.getObjectProperties().forEach(builder::addObjectProperty);
+        builder.addTimestampProperty("departureDateTime")
                 .addTimestampProperty("arrivalDateTime")
                 .addStringProperty("purpose");
         return builder.build();
     }
 
     @Override
-    protected JsonObject buildJson(String id, Map<String, RDFNode> resultMap) {
-        EntityJsonBuilder builder = new EntityJsonBuilder(ENTITY_TYPE, id, resultMap);
-        builder.addObjectProperty("userId", "user")
-                .addObjectProperty("origin", "place")
-                .addObjectProperty("destination", "place")
-                .addStringProperty("departureDateTime")
-                .addStringProperty("arrivalDateTime")
-                .addStringProperty("purpose");
-        return builder.build();
+    protected EntityJsonSchema getJsonSchema() {
+        return JSON_SCHEMA;
     }
 
     @Override
@@ -1,20 +1,24 @@
 package systems.cauldron.service.entitygraph.gateway;
 
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.RDFNode;
-import systems.cauldron.service.entitygraph.gateway.util.EntityJsonBuilder;
+import systems.cauldron.service.entitygraph.gateway.util.EntityJsonSchema;
 import systems.cauldron.service.entitygraph.gateway.util.EntityModelBuilder;
 
 import javax.json.JsonObject;
 import java.util.Collections;
-import java.util.Map;
 
 public class UserGraphGateway extends EntityGraphGateway {
 
     public static final String ENTITY_TYPE = "user";
 
-    public UserGraphGateway(String graphEndpointUrl) {
-        super(graphEndpointUrl, ENTITY_TYPE, Collections.singleton("name"));
+    private static final EntityJsonSchema JSON_SCHEMA = new EntityJsonSchema(ENTITY_TYPE)
+            .addStringProperty("name")
+            .addStringProperty("email")
+            .addStringProperty("bio")
+            .addStringProperty("company");
+
+    public UserGraphGateway(GraphConnectionPool connectionPool) {
+        super(connectionPool, ENTITY_TYPE, Collections.singleton("name"), Collections.emptyMap());
     }
 
     @Override
@@ -28,13 +32,8 @@ public class UserGraphGateway extends EntityGraphGateway {
     }
 
     @Override
-    protected JsonObject buildJson(String id, Map<String, RDFNode> resultMap) {
-        EntityJsonBuilder builder = new EntityJsonBuilder(ENTITY_TYPE, id, resultMap);
-        builder.addStringProperty("name")
-                .addStringProperty("email")
-                .addStringProperty("bio")
-                .addStringProperty("company");
-        return builder.build();
+    protected EntityJsonSchema getJsonSchema() {
+        return JSON_SCHEMA;
     }
 
     @Override
@@ -0,0 +1,359 @@
+package systems.cauldron.service.entitygraph.gateway;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class WriteBehindQueue {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+    private final EntityGraphGateway gateway;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final long awaitTimeoutMillis;
+    private final BlockingQueue<PendingWrite> queue;
+    private final List<PendingWrite> recovered;
+    private final Path journalPath;
+    private final FileChannel journal;
+    private final Thread flusher;
+    private final Object syncLock = new Object();
+
+    //pending writes per entity id, so synchronous writes to the same entity can wait for them to land first
+    private final Map<String, Integer> pendingIds = new HashMap<>();
+
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    private long nextSequence;
+    private long syncedSequence = -1;
+    private volatile int recoveredCount;
+    private volatile boolean closed;
+
+    public WriteBehindQueue(EntityGraphGateway gateway, Path journalDirectory, int maxQueuedWrites, int maxBatchSize, long maxDelayMillis,
+                            long awaitTimeoutMillis) {
+        this.gateway = gateway;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.awaitTimeoutMillis = awaitTimeoutMillis;
+        this.queue = new LinkedBlockingQueue<>(maxQueuedWrites);
+        this.journalPath = journalDirectory.resolve(gateway.getEntityType() + ".journal");
+        try {
+            Files.createDirectories(journalDirectory);
+            this.recovered = recover();
+            this.journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        recovered.forEach(write -> addPending(write.entityId));
+        this.recoveredCount = recovered.size();
+        this.flusher = new Thread(this::run, "write-behind-" + gateway.getEntityType());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public boolean offer(String entityId, JsonObject jsonObject) {
+        //the write is journaled before it is acknowledged, and sequence order matches queue order
+        long sequence;
+        synchronized (journal) {
+            if (closed || queue.remainingCapacity() == 0) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            PendingWrite write = new PendingWrite(nextSequence++, entityId, jsonObject);
+            appendToJournal(Json.createObjectBuilder()
+                    .add("seq", write.sequence)
+                    .add("entityId", entityId)
+                    .add("entity", jsonObject)
+                    .build());
+            addPending(entityId);
+            queue.add(write);
+            sequence = write.sequence;
+        }
+        sync(sequence);
+        return true;
+    }
+
+    public synchronized void awaitFlushed(String entityId) {
+        //bounded, so a flusher retrying against a store that stays down cannot hold the caller's thread indefinitely
+        long deadline = System.currentTimeMillis() + awaitTimeoutMillis;
+        try {
+            while (pendingIds.containsKey(entityId) && flusher.isAlive()) {
+                long remainingMillis = deadline - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    throw new PendingException(gateway.getEntityType(), entityId);
+                }
+                wait(remainingMillis);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getEntityType() {
+        return gateway.getEntityType();
+    }
+
+    public int getQueuedCount() {
+        return queue.size() + recoveredCount;
+    }
+
+    public long getFlushedCount() {
+        return flushed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushes.get();
+    }
+
+    public void close(long timeoutMillis) {
+        //stops taking writes, then gives the flusher a bounded time to drain what was already accepted
+        synchronized (journal) {
+            closed = true;
+        }
+        try {
+            flusher.join(timeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            logger.log(Level.WARNING, String.format("%d %s writes left in journal for replay on restart", getQueuedCount(), gateway.getEntityType()));
+            flusher.interrupt();
+        }
+        synchronized (journal) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "exception while closing write-behind journal", ex);
+            }
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>();
+        try {
+            while (!recovered.isEmpty()) {
+                List<PendingWrite> chunk = recovered.subList(0, Math.min(maxBatchSize, recovered.size()));
+                batch.addAll(chunk);
+                chunk.clear();
+                recoveredCount = recovered.size();
+                flush(batch);
+            }
+            while (true) {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                //a batch is sent once it is full or its oldest write has waited the maximum delay
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < maxBatchSize) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    PendingWrite next = remainingNanos > 0 ? queue.poll(remainingNanos, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) throws InterruptedException {
+        List<String> entityIds = new ArrayList<>();
+        List<JsonObject> jsonObjects = new ArrayList<>();
+        batch.forEach(write -> {
+            entityIds.add(write.entityId);
+            jsonObjects.add(write.jsonObject);
+        });
+        List<EntityGraphGateway.CreateOutcome> outcomes = createAll(entityIds, jsonObjects);
+        for (int i = 0; i < outcomes.size(); i++) {
+            if (outcomes.get(i) != EntityGraphGateway.CreateOutcome.CREATED) {
+                logger.log(Level.WARNING, String.format("write-behind create of %s %s was not applied: %s",
+                        gateway.getEntityType(), entityIds.get(i), outcomes.get(i)));
+            }
+        }
+        flushed.addAndGet(batch.size());
+        synchronized (journal) {
+            //batches are flushed in sequence order, so a single marker covers everything before it
+            appendToJournal(Json.createObjectBuilder().add("flushed", batch.get(batch.size() - 1).sequence).build());
+            if (queue.isEmpty() && recoveredCount == 0) {
+                truncateJournal();
+            } else {
+                forceJournal();
+            }
+        }
+        entityIds.forEach(this::removePending);
+        batch.clear();
+    }
+
+    private List<EntityGraphGateway.CreateOutcome> createAll(List<String> entityIds, List<JsonObject> jsonObjects) throws InterruptedException {
+        long retryDelayMillis = 100;
+        while (true) {
+            try {
+                return gateway.createAll(entityIds, jsonObjects);
+            } catch (RuntimeException ex) {
+                failedFlushes.incrementAndGet();
+                if (GraphConnectionPool.isRejected(ex)) {
+                    //a refused batch would be refused on every retry, so it is halved until the refused write is on its own and dropped
+                    if (entityIds.size() == 1) {
+                        logger.log(Level.WARNING, String.format("write-behind create of %s %s was refused by the store",
+                                gateway.getEntityType(), entityIds.get(0)), ex);
+                        return List.of(EntityGraphGateway.CreateOutcome.INVALID);
+                    }
+                    int half = entityIds.size() / 2;
+                    List<EntityGraphGateway.CreateOutcome> outcomes = new ArrayList<>(createAll(entityIds.subList(0, half), jsonObjects.subList(0, half)));
+                    outcomes.addAll(createAll(entityIds.subList(half, entityIds.size()), jsonObjects.subList(half, jsonObjects.size())));
+                    return outcomes;
+                }
+                //the batch stays journaled, so a failure only delays it
+                logger.log(Level.WARNING, String.format("write-behind flush of %d %s entities failed, retrying in %dms",
+                        entityIds.size(), gateway.getEntityType(), retryDelayMillis), ex);
+                Thread.sleep(retryDelayMillis);
+                retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private List<PendingWrite> recover() throws IOException {
+        //replays writes journaled after the last flush marker; a torn final line from a crash is skipped
+        List<PendingWrite> writes = new ArrayList<>();
+        if (!Files.exists(journalPath)) {
+            return writes;
+        }
+        long flushedSequence = -1;
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject entry;
+                try (JsonReader jsonReader = Json.createReader(new StringReader(line))) {
+                    entry = jsonReader.readObject();
+                } catch (JsonException ex) {
+                    continue;
+                }
+                if (entry.containsKey("flushed")) {
+                    flushedSequence = entry.getJsonNumber("flushed").longValue();
+                } else {
+                    long sequence = entry.getJsonNumber("seq").longValue();
+                    writes.add(new PendingWrite(sequence, entry.getString("entityId"), entry.getJsonObject("entity")));
+                    nextSequence = Math.max(nextSequence, sequence + 1);
+                }
+            }
+        }
+        long lastFlushed = flushedSequence;
+        writes.removeIf(write -> write.sequence <= lastFlushed);
+        if (!writes.isEmpty()) {
+            logger.log(Level.INFO, String.format("replaying %d journaled %s writes", writes.size(), gateway.getEntityType()));
+        }
+        return writes;
+    }
+
+    private void appendToJournal(JsonObject entry) {
+        ByteBuffer buffer = ByteBuffer.wrap((entry.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void sync(long sequence) {
+        //a group commit: one force covers every write appended before it, so writers that queued up behind it need not force again
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            long appendedSequence;
+            synchronized (journal) {
+                appendedSequence = nextSequence - 1;
+            }
+            forceJournal();
+            syncedSequence = appendedSequence;
+        }
+    }
+
+    private void forceJournal() {
+        try {
+            journal.force(false);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void truncateJournal() {
+        try {
+            journal.truncate(0);
+            journal.force(false);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "exception while truncating write-behind journal", ex);
+        }
+    }
+
+    private synchronized void addPending(String entityId) {
+        pendingIds.merge(entityId, 1, Integer::sum);
+    }
+
+    private synchronized void removePending(String entityId) {
+        pendingIds.computeIfPresent(entityId, (id, count) -> count > 1 ? count - 1 : null);
+        notifyAll();
+    }
+
+    public static class PendingException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public PendingException(String entityType, String entityId) {
+            super(String.format("write-behind create of %s %s is still pending", entityType, entityId));
+        }
+    }
+
+    private static class PendingWrite {
+
+        private final long sequence;
+        private final String entityId;
+        private final JsonObject jsonObject;
+
+        private PendingWrite(long sequence, String entityId, JsonObject jsonObject) {
+            this.sequence = sequence;
+            this.entityId = entityId;
+            this.jsonObject = jsonObject;
+        }
+    }
+
+}
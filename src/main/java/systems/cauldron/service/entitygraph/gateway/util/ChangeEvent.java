@@ -0,0 +1,88 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+public class ChangeEvent {
+
+    public enum Operation {
+        CREATE, UPDATE, DELETE
+    }
+
+    private final long offset;
+    private final long timestamp;
+    private final String entityType;
+    private final String entityId;
+    private final Operation operation;
+    private final String version;
+    private final Long revision;
+    private final JsonObject entity;
+
+    ChangeEvent(long offset, long timestamp, String entityType, String entityId, Operation operation, String version, Long revision,
+                JsonObject entity) {
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.operation = operation;
+        this.version = version;
+        this.revision = revision;
+        this.entity = entity;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Optional<String> getVersion() {
+        return Optional.ofNullable(version);
+    }
+
+    public OptionalLong getRevision() {
+        return revision == null ? OptionalLong.empty() : OptionalLong.of(revision);
+    }
+
+    public Optional<JsonObject> getEntity() {
+        return Optional.ofNullable(entity);
+    }
+
+    public JsonObject toJson() {
+        JsonObjectBuilder builder = Json.createObjectBuilder()
+                .add("offset", offset)
+                .add("timestamp", timestamp)
+                .add("entityType", entityType)
+                .add(entityType + "Id", entityId)
+                .add("operation", operation.name().toLowerCase());
+        if (version != null) {
+            builder.add("version", version);
+        }
+        //the version is an opaque tag, so consumers order an entity's events by its revision instead
+        if (revision != null) {
+            builder.add("revision", revision);
+        }
+        if (entity != null) {
+            builder.add("entity", entity);
+        }
+        return builder.build();
+    }
+
+}
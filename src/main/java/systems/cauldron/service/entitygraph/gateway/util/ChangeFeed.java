@@ -0,0 +1,88 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChangeFeed {
+
+    private final ChangeEvent[] events;
+    private final boolean includeEntities;
+    private final ThreadPoolExecutor subscriberExecutor;
+
+    private long nextOffset;
+    private boolean closed;
+
+    public ChangeFeed(int capacity, int maxSubscribers, boolean includeEntities) {
+        this.events = new ChangeEvent[capacity];
+        this.includeEntities = includeEntities;
+        //subscribers hold a thread for as long as they stay connected, so they get their own rather than a request thread
+        AtomicInteger threadCount = new AtomicInteger();
+        this.subscriberExecutor = new ThreadPoolExecutor(0, maxSubscribers, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "change-feed-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public synchronized long publish(String entityType, String entityId, ChangeEvent.Operation operation, String version, Long revision,
+                                     JsonObject entity) {
+        long offset = nextOffset++;
+        events[(int) (offset % events.length)] = new ChangeEvent(offset, System.currentTimeMillis(), entityType, entityId,
+                operation, version, revision, includeEntities ? entity : null);
+        notifyAll();
+        return offset;
+    }
+
+    public synchronized List<ChangeEvent> read(long fromOffset, int maxEvents, long timeoutMillis) throws InterruptedException {
+        //an offset that has already been overwritten resumes from the oldest event still held
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!closed && nextOffset <= fromOffset) {
+            long remainingMillis = deadline - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                return Collections.emptyList();
+            }
+            wait(remainingMillis);
+        }
+        List<ChangeEvent> result = new ArrayList<>();
+        for (long offset = Math.max(fromOffset, getFirstOffset()); offset < nextOffset && result.size() < maxEvents; offset++) {
+            result.add(events[(int) (offset % events.length)]);
+        }
+        return result;
+    }
+
+    public synchronized long getFirstOffset() {
+        return Math.max(0, nextOffset - events.length);
+    }
+
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public ExecutorService getSubscriberExecutor() {
+        return subscriberExecutor;
+    }
+
+    public int getSubscriberCount() {
+        return subscriberExecutor.getActiveCount();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+        subscriberExecutor.shutdown();
+    }
+
+}
@@ -0,0 +1,130 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+public class EntityCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private long invalidations;
+
+    public EntityCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public static String getEntityKey(String entityType, String entityId) {
+        return entityType + "/" + entityId;
+    }
+
+    public static String getCollectionKey(String entityType) {
+        return entityType + "/";
+    }
+
+    public <T> Optional<T> get(String key, Class<T> type, Supplier<Optional<T>> loader) {
+        return get(key, type, () -> true, loader);
+    }
+
+    public <T> Optional<T> get(String key, Class<T> type, BooleanSupplier cacheable, Supplier<Optional<T>> loader) {
+        long stamp = getInvalidationStamp();
+        Optional<T> cached = getIfPresent(key, type);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        //asked after the stamp is taken, so a write it does not see yet still drops the loaded value
+        boolean keep = cacheable.getAsBoolean();
+        Optional<T> result = loader.get();
+        if (keep) {
+            result.ifPresent(value -> put(key, value, stamp));
+        }
+        return result;
+    }
+
+    public synchronized <T> Optional<T> getIfPresent(String key, Class<T> type) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return Optional.of(type.cast(entry.value));
+            }
+            entries.remove(key);
+            evictions.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    public synchronized long getInvalidationStamp() {
+        return invalidations;
+    }
+
+    public synchronized void put(String key, Object value, long stamp) {
+        //drop a value loaded before the given stamp if a write invalidated anything while it was being read
+        if (stamp == invalidations) {
+            entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+            evictOverflow();
+        }
+    }
+
+    public synchronized void invalidate(String... keys) {
+        invalidations++;
+        for (String key : keys) {
+            entries.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static class Entry {
+
+        private final Object value;
+        private final long expiresAt;
+
+        private Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import org.apache.jena.graph.Node;
+import systems.cauldron.service.entitygraph.resource.EntityResourceFactory;
+
+import javax.json.Json;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static systems.cauldron.service.entitygraph.gateway.EntityGraphGateway.NAMESPACE_PREFIX;
+
+public class EntityJsonSchema {
+
+    private static final JsonBuilderFactory jsonFactory = Json.createBuilderFactory(Collections.emptyMap());
+
+    private enum FieldType {
+        STRING, INTEGER, OBJECT
+    }
+
+    private final String idField;
+    private final List<String> fieldNames = new ArrayList<>();
+    private final List<FieldType> fieldTypes = new ArrayList<>();
+    private final List<String> objectRootPaths = new ArrayList<>();
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+    private final Map<String, String> objectProperties = new LinkedHashMap<>();
+
+    public EntityJsonSchema(String entityType) {
+        this.idField = entityType + "Id";
+    }
+
+    public EntityJsonSchema addStringProperty(String propertyName) {
+        return addField(propertyName, FieldType.STRING, null);
+    }
+
+    public EntityJsonSchema addIntegerProperty(String propertyName) {
+        return addField(propertyName, FieldType.INTEGER, null);
+    }
+
+    public EntityJsonSchema addObjectProperty(String propertyName, String objectType) {
+        objectProperties.put(propertyName, objectType);
+        return addField(propertyName, FieldType.OBJECT, EntityResourceFactory.getEntityRootPath(objectType));
+    }
+
+    public String getIdField() {
+        return idField;
+    }
+
+    public Map<String, String> getObjectProperties() {
+        //the entity type each object property refers to, in declaration order
+        return Collections.unmodifiableMap(objectProperties);
+    }
+
+    public int size() {
+        return fieldNames.size();
+    }
+
+    public String getFieldName(int index) {
+        return fieldNames.get(index);
+    }
+
+    public int getFieldIndex(Node property) {
+        //looked up by the property's full URI so solutions can be slotted without building local names
+        Integer index = fieldIndexes.get(property.getURI());
+        return index == null ? -1 : index;
+    }
+
+    public String getObjectId(int index, Node value) {
+        return value.getURI().substring(objectRootPaths.get(index).length());
+    }
+
+    public JsonObjectBuilder createBuilder(String entityId) {
+        return jsonFactory.createObjectBuilder().add(idField, entityId);
+    }
+
+    public JsonObject build(String entityId, Node[] values) {
+        JsonObjectBuilder builder = createBuilder(entityId);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                add(builder, i, values[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    public void add(JsonObjectBuilder builder, int index, Node value) {
+        String name = fieldNames.get(index);
+        switch (fieldTypes.get(index)) {
+            case INTEGER:
+                builder.add(name, Integer.parseInt(value.getLiteralLexicalForm()));
+                break;
+            case OBJECT:
+                builder.add(name, getObjectId(index, value));
+                break;
+            default:
+                builder.add(name, value.getLiteralLexicalForm());
+        }
+    }
+
+    public void write(JsonGenerator generator, String name, String entityId, Node[] values) {
+        //a null name writes the object as an array element or a root value
+        if (name == null) {
+            generator.writeStartObject();
+        } else {
+            generator.writeStartObject(name);
+        }
+        generator.write(idField, entityId);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                write(generator, i, values[i]);
+            }
+        }
+        generator.writeEnd();
+    }
+
+    public void write(JsonGenerator generator, int index, Node value) {
+        String name = fieldNames.get(index);
+        switch (fieldTypes.get(index)) {
+            case INTEGER:
+                generator.write(name, Integer.parseInt(value.getLiteralLexicalForm()));
+                break;
+            case OBJECT:
+                generator.write(name, getObjectId(index, value));
+                break;
+            default:
+                generator.write(name, value.getLiteralLexicalForm());
+        }
+    }
+
+    private EntityJsonSchema addField(String propertyName, FieldType type, String objectRootPath) {
+        fieldIndexes.put(NAMESPACE_PREFIX + propertyName, fieldNames.size());
+        fieldNames.add(propertyName);
+        fieldTypes.add(type);
+        objectRootPaths.add(objectRootPath);
+        return this;
+    }
+
+}
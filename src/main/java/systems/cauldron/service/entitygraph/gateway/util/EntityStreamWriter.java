@@ -0,0 +1,92 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+public class EntityStreamWriter {
+
+    private static final JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(Collections.emptyMap());
+
+    private final Writer writer;
+    private final boolean delimited;
+
+    private JsonGenerator generator;
+    private int count;
+    private String lastEntityId;
+
+    private EntityStreamWriter(OutputStream output, boolean delimited) {
+        //closing a generator must not close the stream underneath it, which belongs to the caller
+        this.writer = new FilterWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        this.delimited = delimited;
+    }
+
+    public static EntityStreamWriter array(OutputStream output) {
+        return new EntityStreamWriter(output, false);
+    }
+
+    public static EntityStreamWriter delimited(OutputStream output) {
+        return new EntityStreamWriter(output, true);
+    }
+
+    public JsonGenerator next(String entityId) {
+        //a generator only produces one JSON text, so newline-delimited output needs one per entity
+        if (delimited) {
+            endDelimited();
+            generator = generatorFactory.createGenerator(writer);
+        } else if (generator == null) {
+            generator = generatorFactory.createGenerator(writer);
+            generator.writeStartArray();
+        }
+        count++;
+        lastEntityId = entityId;
+        return generator;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public String getLastEntityId() {
+        return lastEntityId;
+    }
+
+    public void finish() {
+        if (delimited) {
+            endDelimited();
+        } else {
+            if (generator == null) {
+                generator = generatorFactory.createGenerator(writer);
+                generator.writeStartArray();
+            }
+            generator.writeEnd();
+            generator.close();
+        }
+    }
+
+    private void endDelimited() {
+        if (generator != null) {
+            generator.close();
+            try {
+                writer.write('\n');
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+}
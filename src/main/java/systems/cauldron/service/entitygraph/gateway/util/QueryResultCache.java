@@ -0,0 +1,169 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QueryResultCache {
+
+    private static final int MAX_OVERSIZED_KEYS = 1024;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Result> entries;
+    private final LinkedHashMap<String, Result> oversized;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private long generation;
+    private long size;
+
+    public QueryResultCache(long maxBytes, long maxEntryBytes, long ttlMillis) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.oversized = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > MAX_OVERSIZED_KEYS;
+            }
+        };
+    }
+
+    public synchronized Optional<Result> get(String key) {
+        Result marker = oversized.get(key);
+        if (marker != null) {
+            if (marker.expiresAt > System.currentTimeMillis()) {
+                misses.incrementAndGet();
+                return Optional.of(marker);
+            }
+            oversized.remove(key);
+        }
+        Result result = entries.get(key);
+        if (result != null) {
+            if (result.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return Optional.of(result);
+            }
+            remove(key);
+            evictions.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized Result put(String key, byte[] bytes, long generation) {
+        //null bytes mark a result that was too large to hold
+        Result result = new Result(bytes, System.currentTimeMillis() + ttlMillis);
+        if (bytes == null) {
+            //kept apart from the results and across generations, since a write rarely shrinks a large result below the bound
+            oversized.put(key, result);
+            return result;
+        }
+        //drop a result computed against an earlier generation, since a write may have landed while it was running
+        if (generation == this.generation && result.getLength() <= maxEntryBytes) {
+            remove(key);
+            entries.put(key, result);
+            size += result.getLength();
+            evictOverflow();
+        }
+        return result;
+    }
+
+    public synchronized void advanceGeneration() {
+        generation++;
+        entries.clear();
+        size = 0;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private void remove(String key) {
+        Result removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed.getLength();
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Result>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            size -= iterator.next().getValue().getLength();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public static class Result {
+
+        private final byte[] bytes;
+        private final long expiresAt;
+        private final String entityTag;
+
+        private Result(byte[] bytes, long expiresAt) {
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+            this.entityTag = bytes != null ? getDigest(bytes) : null;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getEntityTag() {
+            return entityTag;
+        }
+
+        private long getLength() {
+            return bytes != null ? bytes.length : 0;
+        }
+
+        private static String getDigest(byte[] bytes) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < 16; i++) {
+                    builder.append(String.format("%02x", digest[i]));
+                }
+                return builder.toString();
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QueryStatistics {
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong rowCapped = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public void recordCompleted() {
+        completed.incrementAndGet();
+    }
+
+    public void recordTimedOut() {
+        timedOut.incrementAndGet();
+    }
+
+    public void recordRowCapped() {
+        rowCapped.incrementAndGet();
+    }
+
+    public void recordCancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    public void recordFailed() {
+        failed.incrementAndGet();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    public long getRowCappedCount() {
+        return rowCapped.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+}
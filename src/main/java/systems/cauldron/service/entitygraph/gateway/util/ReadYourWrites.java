@@ -0,0 +1,74 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Supplier;
+
+public class ReadYourWrites {
+
+    //set on whichever thread is currently working on the request, and carried across to pool threads by propagate
+    private static final ThreadLocal<ReadYourWrites> current = new ThreadLocal<>();
+
+    private volatile long deadlineMillis;
+    private volatile boolean written;
+
+    public ReadYourWrites(long deadlineMillis) {
+        //the deadline of the client's last write, as it was handed back to it; wall clock time, so any server can honour it
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public static Optional<ReadYourWrites> current() {
+        return Optional.ofNullable(current.get());
+    }
+
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        ReadYourWrites session = current.get();
+        if (session == null) {
+            return task;
+        }
+        return () -> {
+            ReadYourWrites previous = current.get();
+            current.set(session);
+            try {
+                return task.get();
+            } finally {
+                current.set(previous);
+            }
+        };
+    }
+
+    public static Runnable propagate(Runnable task) {
+        Supplier<Void> supplier = propagate(() -> {
+            task.run();
+            return null;
+        });
+        return supplier::get;
+    }
+
+    public void attach() {
+        current.set(this);
+    }
+
+    public void detach() {
+        if (current.get() == this) {
+            current.remove();
+        }
+    }
+
+    public boolean isSticky(long windowMillis) {
+        //a deadline further out than a single window was not handed out by any server, and would pin the client to the primary
+        long remainingMillis = deadlineMillis - System.currentTimeMillis();
+        return remainingMillis > 0 && remainingMillis <= windowMillis;
+    }
+
+    public void recordWrite(long windowMillis) {
+        deadlineMillis = System.currentTimeMillis() + windowMillis;
+        written = true;
+    }
+
+    public OptionalLong getWriteDeadlineMillis() {
+        //only a request that wrote hands a new deadline back
+        return written ? OptionalLong.of(deadlineMillis) : OptionalLong.empty();
+    }
+
+}
@@ -0,0 +1,247 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+public class RequestTiming {
+
+    public enum Phase {
+        PARSE("parse"), QUEUE("queue"), DB("db"), SERIALIZE("serialize");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    //set on whichever thread is currently working on the request, and carried across to pool threads by propagate
+    private static final ThreadLocal<RequestTiming> current = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final long startEpochNanos;
+    private final AtomicLongArray durations = new AtomicLongArray(Phase.values().length);
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(Phase.values().length);
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final List<Span> spans;
+
+    private volatile long endNanos;
+
+    public RequestTiming(String traceId, String parentSpanId, boolean sampled) {
+        Instant now = Instant.now();
+        this.startEpochNanos = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+        this.traceId = traceId != null ? traceId : randomHex(16);
+        this.spanId = newSpanId();
+        this.parentSpanId = parentSpanId;
+        //individual spans are only kept for the requests that will be written out
+        this.spans = sampled ? new ArrayList<>() : null;
+    }
+
+    public static Optional<RequestTiming> current() {
+        RequestTiming timing = current.get();
+        //a thread that last served an asynchronous request may still hold its finished timing
+        return timing == null || timing.isFinished() ? Optional.empty() : Optional.of(timing);
+    }
+
+    public static void record(Phase phase, long startNanos, Map<String, String> attributes) {
+        record(phase, startNanos, System.nanoTime(), attributes);
+    }
+
+    public static void record(Phase phase, long startNanos, long endNanos, Map<String, String> attributes) {
+        RequestTiming timing = current.get();
+        if (timing != null && !timing.isFinished()) {
+            timing.add(phase, startNanos, endNanos, attributes);
+        }
+    }
+
+    public static <T> T time(Phase phase, Supplier<T> task) {
+        long startNanos = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            record(phase, startNanos, Map.of());
+        }
+    }
+
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        RequestTiming timing = current.get();
+        if (timing == null) {
+            return task;
+        }
+        return () -> {
+            RequestTiming previous = timing.attach();
+            try {
+                return task.get();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static Runnable propagate(Runnable task) {
+        Supplier<Void> supplier = propagate(() -> {
+            task.run();
+            return null;
+        });
+        return supplier::get;
+    }
+
+    public static String newSpanId() {
+        return randomHex(8);
+    }
+
+    public RequestTiming attach() {
+        RequestTiming previous = current.get();
+        current.set(this);
+        return previous;
+    }
+
+    public static void restore(RequestTiming previous) {
+        current.set(previous);
+    }
+
+    public void detach() {
+        if (current.get() == this) {
+            current.remove();
+        }
+    }
+
+    public boolean finish() {
+        //only the first caller gets to write out the record
+        synchronized (this) {
+            if (endNanos != 0) {
+                return false;
+            }
+            endNanos = System.nanoTime();
+            return true;
+        }
+    }
+
+    public boolean isFinished() {
+        return endNanos != 0;
+    }
+
+    public boolean isSampled() {
+        return spans != null;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public Optional<String> getParentSpanId() {
+        return Optional.ofNullable(parentSpanId);
+    }
+
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    public long getEndEpochNanos() {
+        return toEpochNanos(isFinished() ? endNanos : System.nanoTime());
+    }
+
+    public List<Span> getSpans() {
+        synchronized (this) {
+            return spans == null ? List.of() : List.copyOf(spans);
+        }
+    }
+
+    public String getServerTiming() {
+        StringBuilder header = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (counts.get(phase.ordinal()) > 0) {
+                appendMetric(header, phase.getMetricName(), durations.get(phase.ordinal()));
+            }
+        }
+        appendMetric(header, "total", System.nanoTime() - startNanos);
+        if (isSampled()) {
+            //lets a slow response be matched with its trace record
+            header.append(", trace;desc=\"").append(traceId).append('"');
+        }
+        return header.toString();
+    }
+
+    private void add(Phase phase, long startNanos, long endNanos, Map<String, String> attributes) {
+        durations.addAndGet(phase.ordinal(), endNanos - startNanos);
+        counts.incrementAndGet(phase.ordinal());
+        if (spans != null) {
+            Span span = new Span(phase, toEpochNanos(startNanos), toEpochNanos(endNanos), attributes);
+            synchronized (this) {
+                spans.add(span);
+            }
+        }
+    }
+
+    private long toEpochNanos(long nanos) {
+        return startEpochNanos + (nanos - startNanos);
+    }
+
+    private static void appendMetric(StringBuilder header, String name, long durationNanos) {
+        if (header.length() > 0) {
+            header.append(", ");
+        }
+        header.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.3f", durationNanos / 1e6));
+    }
+
+    private static String randomHex(int bytes) {
+        StringBuilder hex = new StringBuilder(bytes * 2);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < bytes; i += Long.BYTES) {
+            String value = Long.toHexString(random.nextLong());
+            hex.append("0".repeat(16 - value.length())).append(value);
+        }
+        return hex.toString();
+    }
+
+    public static class Span {
+
+        private final Phase phase;
+        private final long startEpochNanos;
+        private final long endEpochNanos;
+        private final Map<String, String> attributes;
+
+        private Span(Phase phase, long startEpochNanos, long endEpochNanos, Map<String, String> attributes) {
+            this.phase = phase;
+            this.startEpochNanos = startEpochNanos;
+            this.endEpochNanos = endEpochNanos;
+            this.attributes = attributes;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public long getStartEpochNanos() {
+            return startEpochNanos;
+        }
+
+        public long getEndEpochNanos() {
+            return endEpochNanos;
+        }
+
+        public Map<String, String> getAttributes() {
+            return attributes;
+        }
+    }
+
+}
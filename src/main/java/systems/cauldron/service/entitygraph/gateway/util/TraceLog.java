@@ -0,0 +1,181 @@
+package systems.cauldron.service.entitygraph.gateway.util;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class TraceLog {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private static final JsonBuilderFactory jsonFactory = Json.createBuilderFactory(Collections.emptyMap());
+
+    private static final String SERVICE_NAME = "entity-graph";
+    private static final String SCOPE_NAME = "systems.cauldron.service.entitygraph";
+
+    //span kinds and status codes as numbered in the OTLP protobuf definitions
+    private static final int KIND_INTERNAL = 1;
+    private static final int KIND_SERVER = 2;
+    private static final int KIND_CLIENT = 3;
+    private static final int STATUS_OK = 1;
+    private static final int STATUS_ERROR = 2;
+
+    private final double sampleRate;
+    private final BlockingQueue<Entry> queue;
+    private final BufferedWriter writer;
+    private final Thread writerThread;
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public TraceLog(Path file, double sampleRate, int maxQueuedRecords) {
+        this.sampleRate = sampleRate;
+        this.queue = new ArrayBlockingQueue<>(maxQueuedRecords);
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        //records are written off the request path, so a slow disk costs dropped records rather than latency
+        this.writerThread = new Thread(this::run, "trace-log");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public boolean isSampled(Boolean parentSampled) {
+        //an upstream sampling decision is honoured either way, so a trace is never recorded in part
+        if (parentSampled != null) {
+            return parentSampled;
+        }
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    public void write(RequestTiming timing, String name, Map<String, String> attributes, int status) {
+        if (closed || !queue.offer(new Entry(timing, name, attributes, status))) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try (BufferedWriter out = writer) {
+            while (!closed || !queue.isEmpty()) {
+                Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (entry == null) {
+                    continue;
+                }
+                out.write(toOtlp(entry).toString());
+                out.write('\n');
+                writtenCount.incrementAndGet();
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "exception while writing trace records", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static JsonObject toOtlp(Entry entry) {
+        //one ExportTraceServiceRequest per line, as read by the OpenTelemetry collector's file receiver
+        RequestTiming timing = entry.timing;
+        JsonArrayBuilder spans = jsonFactory.createArrayBuilder();
+        JsonObjectBuilder serverSpan = getSpan(timing.getTraceId(), timing.getSpanId(), timing.getParentSpanId().orElse(""), entry.name,
+                KIND_SERVER, timing.getStartEpochNanos(), timing.getEndEpochNanos(), entry.attributes)
+                .add("status", jsonFactory.createObjectBuilder().add("code", entry.status >= 500 ? STATUS_ERROR : STATUS_OK));
+        spans.add(serverSpan);
+        for (RequestTiming.Span span : timing.getSpans()) {
+            //store round trips are client spans named for their operation, the other phases internal spans named for the phase
+            boolean roundTrip = span.getPhase() == RequestTiming.Phase.DB;
+            String spanName = roundTrip ? "sparql " + span.getAttributes().get("db.operation") : span.getPhase().getMetricName();
+            spans.add(getSpan(timing.getTraceId(), RequestTiming.newSpanId(), timing.getSpanId(), spanName, roundTrip ? KIND_CLIENT : KIND_INTERNAL,
+                    span.getStartEpochNanos(), span.getEndEpochNanos(), span.getAttributes()));
+        }
+        return jsonFactory.createObjectBuilder()
+                .add("resourceSpans", jsonFactory.createArrayBuilder().add(jsonFactory.createObjectBuilder()
+                        .add("resource", jsonFactory.createObjectBuilder()
+                                .add("attributes", getAttributes(Map.of("service.name", SERVICE_NAME))))
+                        .add("scopeSpans", jsonFactory.createArrayBuilder().add(jsonFactory.createObjectBuilder()
+                                .add("scope", jsonFactory.createObjectBuilder().add("name", SCOPE_NAME))
+                                .add("spans", spans)))))
+                .build();
+    }
+
+    private static JsonObjectBuilder getSpan(String traceId, String spanId, String parentSpanId, String name, int kind,
+                                             long startEpochNanos, long endEpochNanos, Map<String, String> attributes) {
+        //64-bit integers are strings in the protobuf JSON mapping
+        return jsonFactory.createObjectBuilder()
+                .add("traceId", traceId)
+                .add("spanId", spanId)
+                .add("parentSpanId", parentSpanId)
+                .add("name", name)
+                .add("kind", kind)
+                .add("startTimeUnixNano", String.valueOf(startEpochNanos))
+                .add("endTimeUnixNano", String.valueOf(endEpochNanos))
+                .add("attributes", getAttributes(attributes));
+    }
+
+    private static JsonArrayBuilder getAttributes(Map<String, String> attributes) {
+        JsonArrayBuilder array = jsonFactory.createArrayBuilder();
+        attributes.forEach((key, value) -> array.add(jsonFactory.createObjectBuilder()
+                .add("key", key)
+                .add("value", jsonFactory.createObjectBuilder().add("stringValue", value))));
+        return array;
+    }
+
+    private static class Entry {
+
+        private final RequestTiming timing;
+        private final String name;
+        private final Map<String, String> attributes;
+        private final int status;
+
+        private Entry(RequestTiming timing, String name, Map<String, String> attributes, int status) {
+            this.timing = timing;
+            this.name = name;
+            this.attributes = attributes;
+            this.status = status;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package systems.cauldron.service.entitygraph.resource;
+
+import io.helidon.webserver.ServerRequest;
+import systems.cauldron.service.entitygraph.ServerConfig;
+import systems.cauldron.service.entitygraph.gateway.util.ChangeEvent;
+import systems.cauldron.service.entitygraph.gateway.util.ChangeFeed;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+@Path("/changes")
+public class ChangeFeedResource {
+
+    private static Logger logger = Logger.getGlobal();
+
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    private static final int MAX_EVENTS_PER_READ = 256;
+
+    private static final CacheControl NO_CACHE = CacheControl.valueOf("no-cache");
+
+    @Inject
+    private ServerRequest request;
+
+    private ChangeFeed changeFeed;
+    private long heartbeatMillis;
+
+    @PostConstruct
+    public void initialize() {
+        changeFeed = request.context().get(ChangeFeed.class).orElseThrow();
+        heartbeatMillis = request.context().get(ServerConfig.class).orElseThrow().getChangeFeedHeartbeatMillis();
+    }
+
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void subscribe(@QueryParam("offset") Long offset,
+                          @QueryParam("type") String entityTypes,
+                          @HeaderParam(LAST_EVENT_ID_HEADER) String lastEventId,
+                          @Suspended AsyncResponse asyncResponse) {
+        //a reconnecting EventSource resumes after the last event it saw, otherwise only new events are sent
+        long fromOffset;
+        try {
+            if (lastEventId != null) {
+                fromOffset = Long.parseLong(lastEventId.trim()) + 1;
+            } else if (offset != null) {
+                fromOffset = offset;
+            } else {
+                fromOffset = changeFeed.getNextOffset();
+            }
+        } catch (NumberFormatException ex) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        if (fromOffset < 0) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        Set<String> typeFilter = entityTypes == null ? Set.of() : Arrays.stream(entityTypes.split(","))
+                .map(String::trim)
+                .filter(type -> !type.isEmpty())
+                .collect(Collectors.toSet());
+        try {
+            changeFeed.getSubscriberExecutor().execute(() -> asyncResponse.resume(Response.ok(getStreamingOutput(fromOffset, typeFilter))
+                    .cacheControl(NO_CACHE)
+                    .build()));
+        } catch (RejectedExecutionException ex) {
+            logger.log(Level.WARNING, "change feed subscriber limit reached");
+            asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1).build());
+        }
+    }
+
+    private StreamingOutput getStreamingOutput(long fromOffset, Set<String> typeFilter) {
+        return output -> {
+            Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+            long nextOffset = fromOffset;
+            try {
+                writer.write("retry: 1000\n\n");
+                if (fromOffset > changeFeed.getNextOffset()) {
+                    //offsets restart with the process, so one from before a restart is replayed from the oldest event held
+                    nextOffset = changeFeed.getFirstOffset();
+                    writeGap(writer, fromOffset, nextOffset);
+                }
+                writer.flush();
+                while (!changeFeed.isClosed()) {
+                    List<ChangeEvent> events = changeFeed.read(nextOffset, MAX_EVENTS_PER_READ, heartbeatMillis);
+                    if (events.isEmpty()) {
+                        //a comment line keeps intermediaries from timing out and surfaces a disconnected client
+                        writer.write(":\n\n");
+                    } else {
+                        if (events.get(0).getOffset() > nextOffset) {
+                            //the requested events were overwritten, so the consumer has to rescan before applying these
+                            writeGap(writer, nextOffset, events.get(0).getOffset());
+                        }
+                        for (ChangeEvent event : events) {
+                            if (typeFilter.isEmpty() || typeFilter.contains(event.getEntityType())) {
+                                writer.write("id: " + event.getOffset() + "\n");
+                                writer.write("event: " + event.getOperation().name().toLowerCase() + "\n");
+                                writer.write("data: " + event.toJson() + "\n\n");
+                            }
+                        }
+                        nextOffset = events.get(events.size() - 1).getOffset() + 1;
+                    }
+                    writer.flush();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ex) {
+                logger.log(Level.FINE, "change feed subscriber disconnected");
+            }
+        };
+    }
+
+    private static void writeGap(Writer writer, long requestedOffset, long firstOffset) throws IOException {
+        writer.write("event: gap\ndata: " + Json.createObjectBuilder()
+                .add("requestedOffset", requestedOffset)
+                .add("firstOffset", firstOffset)
+                .build() + "\n\n");
+    }
+
+}
@@ -2,25 +2,56 @@ package systems.cauldron.service.entitygraph.resource;
 
 import org.glassfish.jersey.process.Inflector;
 import org.glassfish.jersey.server.model.Resource;
+import systems.cauldron.service.entitygraph.gateway.CircuitBreaker;
 import systems.cauldron.service.entitygraph.gateway.EntityGraphGateway;
-import systems.cauldron.service.entitygraph.gateway.PlaceGraphGateway;
-import systems.cauldron.service.entitygraph.gateway.TripGraphGateway;
-import systems.cauldron.service.entitygraph.gateway.UserGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.TraversalGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.WriteBehindQueue;
+import systems.cauldron.service.entitygraph.gateway.util.EntityStreamWriter;
+import systems.cauldron.service.entitygraph.gateway.util.RequestTiming;
 
 import javax.json.Json;
-import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
 import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static javax.ws.rs.core.Response.accepted;
 import static javax.ws.rs.core.Response.created;
 import static javax.ws.rs.core.Response.noContent;
 import static javax.ws.rs.core.Response.ok;
@@ -31,6 +62,13 @@ public class EntityResourceFactory {
 
     private static final String ROOT_PATH = "http://api.cauldron.systems/graph/";
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final int MAX_MULTI_GET_IDS = 500;
+
+    //ids become the last segment of an entity's IRI, so they are limited to the characters a path segment allows
+    private static final Pattern VALID_ID = Pattern.compile("([A-Za-z0-9._~!$&'()*+,;=:@-]|%[0-9A-Fa-f]{2})+");
+
     public static String getEntityPath(String entityType, String entityId) {
         return ROOT_PATH + entityType + "s/" + entityId;
     }
@@ -39,15 +77,14 @@ public class EntityResourceFactory {
         return ROOT_PATH + entityType + "s/";
     }
 
-    public static Resource[] getResources(Logger logger, String graphEndpointUrl) {
-        return new Resource[]{
-                create(new UserGraphGateway(graphEndpointUrl), logger),
-                create(new PlaceGraphGateway(graphEndpointUrl), logger),
-                create(new TripGraphGateway(graphEndpointUrl), logger)
-        };
+    public static Resource[] getResources(Logger logger, List<EntityGraphGateway> gateways, TraversalGraphGateway traversalGateway,
+                                          Executor responseExecutor, int batchChunkSize) {
+        return gateways.stream()
+                .flatMap(gateway -> Stream.of(create(gateway, traversalGateway, responseExecutor, logger), createBatch(gateway, logger, batchChunkSize)))
+                .toArray(Resource[]::new);
     }
 
-    public static Resource create(EntityGraphGateway gateway, Logger logger) {
+    public static Resource create(EntityGraphGateway gateway, TraversalGraphGateway traversalGateway, Executor responseExecutor, Logger logger) {
 
         final String entityIdKey = gateway.getEntityType() + "Id";
         final String entityRootPath = gateway.getEntityType() + "s/";
@@ -68,22 +105,90 @@ public class EntityResourceFactory {
 
         resourceBuilder.addMethod("GET")
                 .produces(MediaType.APPLICATION_JSON_TYPE)
-                .handledBy(new Inflector<ContainerRequestContext, Response>() {
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
 
                     @Override
-                    public Response apply(ContainerRequestContext data) {
-                        JsonArray result;
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
+                        Optional<String> cursor = getQueryParameter(data, "cursor");
+                        OptionalInt limit;
+                        Set<String> expand;
                         try {
-                            result = gateway.list();
-                        } catch (Exception ex) {
-                            logger.log(Level.SEVERE, "exception while retrieving entity", ex);
-                            return serverError().build();
+                            limit = getLimit(data);
+                            expand = getExpand(data, gateway);
+                        } catch (IllegalArgumentException ex) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
-                        if (!result.isEmpty()) {
-                            return ok(result.toString()).build();
+                        Optional<String> ids = getQueryParameter(data, "ids");
+                        if (ids.isPresent()) {
+                            List<String> idList = Arrays.stream(ids.get().split(","))
+                                    .map(String::trim)
+                                    .filter(id -> !id.isEmpty())
+                                    .distinct()
+                                    .collect(Collectors.toList());
+                            if (idList.isEmpty() || idList.size() > MAX_MULTI_GET_IDS || limit.isPresent() || cursor.isPresent() || !expand.isEmpty()) {
+                                return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                            }
+                            return gateway.readAsync(idList)
+                                    .thenApply(result -> {
+                                        if (!result.isEmpty()) {
+                                            return ok(RequestTiming.time(RequestTiming.Phase.SERIALIZE, result::toString)).build();
+                                        } else {
+                                            return status(Response.Status.NOT_FOUND).build();
+                                        }
+                                    })
+                                    .exceptionally(getFailureResponder(logger, "exception while retrieving entities"));
+                        }
+                        CompletionStage<EntityGraphGateway.EntityListing> resultStage;
+                        if (cursor.isPresent() && limit.isEmpty()) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                        } else if (limit.isPresent() || !expand.isEmpty()) {
+                            resultStage = gateway.listAsync(cursor, limit, expand);
                         } else {
-                            return status(Response.Status.NOT_FOUND).build();
+                            resultStage = gateway.listAsync();
                         }
+                        //the page is built on the pool's executor, but written out from the response executor
+                        return resultStage
+                                .thenApplyAsync(result -> {
+                                    //a page past the end is empty rather than missing, since a full last page still links to it
+                                    if (!result.isEmpty() || cursor.isPresent()) {
+                                        //the listing is already serialized, so it is sent as is
+                                        Response.ResponseBuilder responseBuilder = ok(result.getBytes(), MediaType.APPLICATION_JSON_TYPE);
+                                        if (limit.isPresent() && result.getCount() == limit.getAsInt()) {
+                                            String lastId = result.getLastEntityId().orElseThrow();
+                                            URI next = data.getUriInfo().getRequestUriBuilder().replaceQueryParam("cursor", lastId).build();
+                                            responseBuilder.link(next, "next");
+                                        }
+                                        return responseBuilder.build();
+                                    } else {
+                                        return status(Response.Status.NOT_FOUND).build();
+                                    }
+                                }, responseExecutor)
+                                .exceptionally(getFailureResponder(logger, "exception while retrieving entity"));
+                    }
+                });
+
+        resourceBuilder.addMethod("GET")
+                .produces(APPLICATION_NDJSON)
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
+
+                    @Override
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
+                        Optional<String> cursor = getQueryParameter(data, "cursor");
+                        OptionalInt limit;
+                        Set<String> expand;
+                        try {
+                            limit = getLimit(data);
+                            expand = getExpand(data, gateway);
+                        } catch (IllegalArgumentException ex) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                        }
+                        if (cursor.isPresent() && limit.isEmpty()) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                        }
+                        //the page is read into memory while the connection is held, so a slow client only ever holds a response thread
+                        return gateway.listAsync(cursor, limit, expand, true)
+                                .thenApplyAsync(result -> ok(result.getBytes()).build(), responseExecutor)
+                                .exceptionally(getFailureResponder(logger, "exception while streaming entities"));
                     }
                 });
 
@@ -91,65 +196,102 @@ public class EntityResourceFactory {
                 .addChildResource("{id}")
                 .addMethod("GET")
                 .produces(MediaType.APPLICATION_JSON_TYPE)
-                .handledBy(new Inflector<ContainerRequestContext, Response>() {
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
 
                     @Override
-                    public Response apply(ContainerRequestContext data) {
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
 
                         Optional<String> idParam = getId(data);
                         if (idParam.isEmpty()) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
                         String id = idParam.get();
 
-                        Optional<JsonObject> result;
+                        Set<String> expand;
                         try {
-                            result = gateway.read(id);
-                        } catch (Exception ex) {
-                            logger.log(Level.SEVERE, "exception while retrieving entity", ex);
-                            return serverError().build();
+                            expand = getExpand(data, gateway);
+                        } catch (IllegalArgumentException ex) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
-                        if (result.isPresent()) {
-                            JsonObject jsonObject = result.get();
-                            return ok(jsonObject.toString()).build();
-                        } else {
-                            return status(Response.Status.NOT_FOUND).build();
+
+                        //only the unexpanded representation is tagged, since expanded ones also change with their related entities
+                        Optional<List<String>> entityTags = getEntityTags(data, HttpHeaders.IF_NONE_MATCH, true);
+                        if (entityTags.isPresent() && expand.isEmpty()) {
+                            return gateway.readVersionAsync(id)
+                                    .thenCompose(version -> {
+                                        if (version.isPresent() && isMatch(entityTags.get(), version.get())) {
+                                            return completedFuture(Response.notModified(new EntityTag(version.get())).build());
+                                        }
+                                        return read(id, expand);
+                                    })
+                                    .exceptionally(getFailureResponder(logger, "exception while retrieving entity"));
                         }
+                        return read(id, expand);
+
+                    }
 
+                    private CompletionStage<Response> read(String id, Set<String> expand) {
+                        return gateway.readVersionedAsync(id, expand)
+                                .thenApply(result -> {
+                                    if (result.isPresent()) {
+                                        String json = RequestTiming.time(RequestTiming.Phase.SERIALIZE, () -> result.get().getJson().toString());
+                                        Response.ResponseBuilder responseBuilder = ok(json);
+                                        if (expand.isEmpty()) {
+                                            result.get().getVersion().ifPresent(version -> responseBuilder.tag(new EntityTag(version)));
+                                        }
+                                        return responseBuilder.build();
+                                    } else {
+                                        return status(Response.Status.NOT_FOUND).build();
+                                    }
+                                })
+                                .exceptionally(getFailureResponder(logger, "exception while retrieving entity"));
                     }
                 });
 
         resourceBuilder
                 .addMethod("POST")
                 .consumes(MediaType.APPLICATION_JSON_TYPE)
-                .handledBy(new Inflector<ContainerRequestContext, Response>() {
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
 
                     @Override
-                    public Response apply(ContainerRequestContext data) {
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
 
                         Optional<JsonObject> objectResult = getEntity(data);
                         if (objectResult.isEmpty()) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
                         JsonObject jsonObject = objectResult.get();
 
-                        //TODO: additional validation?
-                        if (!jsonObject.containsKey(entityIdKey)) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                        if (!jsonObject.containsKey(entityIdKey) || jsonObject.get(entityIdKey).getValueType() != JsonValue.ValueType.STRING) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
 
                         String id = jsonObject.getString(entityIdKey);
+                        //checked up front, since a write-behind create is acknowledged long before the store could refuse it
+                        if (!isValidId(id)) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                        }
 
-                        try {
-                            if (gateway.create(id, jsonObject)) {
-                                return created(URI.create(ROOT_PATH + entityRootPath + id)).build();
+                        Optional<WriteBehindQueue> writeBehindQueue = gateway.getWriteBehindQueue();
+                        if (writeBehindQueue.isPresent()) {
+                            //accepted once journaled; a conflict is only discovered when the batch is flushed
+                            if (writeBehindQueue.get().offer(id, jsonObject)) {
+                                return completedFuture(accepted().location(URI.create(ROOT_PATH + entityRootPath + id)).build());
                             } else {
-                                return status(Response.Status.CONFLICT).build();
+                                logger.log(Level.WARNING, "write-behind queue is full");
+                                return completedFuture(status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1).build());
                             }
-                        } catch (Exception ex) {
-                            logger.log(Level.SEVERE, "exception while creating entity", ex);
-                            return serverError().build();
                         }
+
+                        return gateway.createAsync(id, jsonObject)
+                                .thenApply(created -> {
+                                    if (created) {
+                                        return created(URI.create(ROOT_PATH + entityRootPath + id)).build();
+                                    } else {
+                                        return status(Response.Status.CONFLICT).build();
+                                    }
+                                })
+                                .exceptionally(getFailureResponder(logger, "exception while creating entity"));
                     }
                 });
 
@@ -157,34 +299,51 @@ public class EntityResourceFactory {
                 .addChildResource("{id}")
                 .addMethod("PUT")
                 .consumes(MediaType.APPLICATION_JSON_TYPE)
-                .handledBy(new Inflector<ContainerRequestContext, Response>() {
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
 
                     @Override
-                    public Response apply(ContainerRequestContext data) {
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
 
                         Optional<String> idParam = getId(data);
                         if (idParam.isEmpty()) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
                         String id = idParam.get();
 
                         Optional<JsonObject> objectResult = getEntity(data);
                         if (objectResult.isEmpty()) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
                         //TODO: additional validation?
                         JsonObject jsonObject = objectResult.get();
 
-                        try {
-                            if (gateway.createOrUpdate(id, jsonObject)) {
-                                return created(URI.create(ROOT_PATH + entityRootPath + id)).build();
-                            } else {
-                                return status(Response.Status.OK).build();
-                            }
-                        } catch (Exception ex) {
-                            logger.log(Level.SEVERE, "exception while creating or updating entity", ex);
-                            return serverError().build();
+                        if (getEntityTags(data, HttpHeaders.IF_NONE_MATCH, true).filter(tags -> tags.contains("*")).isPresent()) {
+                            //"If-None-Match: *" only allows the entity to be created
+                            return gateway.createAsync(id, jsonObject)
+                                    .thenApply(created -> {
+                                        if (created) {
+                                            return created(URI.create(ROOT_PATH + entityRootPath + id)).build();
+                                        } else {
+                                            return status(Response.Status.PRECONDITION_FAILED).build();
+                                        }
+                                    })
+                                    .exceptionally(getFailureResponder(logger, "exception while creating entity"));
+                        }
+                        Optional<List<String>> entityTags = getEntityTags(data, HttpHeaders.IF_MATCH, false);
+                        if (entityTags.isPresent()) {
+                            return gateway.createOrUpdateIfMatchAsync(id, jsonObject, entityTags.get())
+                                    .thenApply(updated -> updated ? ok().build() : status(Response.Status.PRECONDITION_FAILED).build())
+                                    .exceptionally(getFailureResponder(logger, "exception while updating entity"));
                         }
+                        return gateway.createOrUpdateAsync(id, jsonObject)
+                                .thenApply(created -> {
+                                    if (created) {
+                                        return created(URI.create(ROOT_PATH + entityRootPath + id)).build();
+                                    } else {
+                                        return status(Response.Status.OK).build();
+                                    }
+                                })
+                                .exceptionally(getFailureResponder(logger, "exception while creating or updating entity"));
                     }
                 });
 
@@ -192,74 +351,452 @@ public class EntityResourceFactory {
                 .addChildResource("{id}")
                 .addMethod("PATCH")
                 .consumes(MediaType.APPLICATION_JSON_TYPE)
-                .handledBy(new Inflector<ContainerRequestContext, Response>() {
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
 
                     @Override
-                    public Response apply(ContainerRequestContext data) {
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
 
                         Optional<String> idParam = getId(data);
                         if (idParam.isEmpty()) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
                         String id = idParam.get();
 
                         Optional<JsonObject> objectResult = getEntity(data);
                         if (objectResult.isEmpty()) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
                         //TODO: additional validation?
                         JsonObject jsonObject = objectResult.get();
 
-                        try {
-                            if (gateway.update(id, jsonObject)) {
-                                return noContent().build();
-                            } else {
-                                return status(Response.Status.NOT_FOUND).build();
-                            }
-                        } catch (Exception ex) {
-                            logger.log(Level.SEVERE, "exception while creating or updating entity", ex);
-                            return serverError().build();
+                        Optional<List<String>> entityTags = getEntityTags(data, HttpHeaders.IF_MATCH, false);
+                        if (entityTags.isPresent()) {
+                            return gateway.updateIfMatchAsync(id, jsonObject, entityTags.get())
+                                    .thenApply(updated -> updated ? noContent().build() : status(Response.Status.PRECONDITION_FAILED).build())
+                                    .exceptionally(getFailureResponder(logger, "exception while updating entity"));
                         }
+                        return gateway.updateAsync(id, jsonObject)
+                                .thenApply(updated -> {
+                                    if (updated) {
+                                        return noContent().build();
+                                    } else {
+                                        return status(Response.Status.NOT_FOUND).build();
+                                    }
+                                })
+                                .exceptionally(getFailureResponder(logger, "exception while creating or updating entity"));
                     }
                 });
 
         resourceBuilder
                 .addChildResource("{id}")
                 .addMethod("DELETE")
-                .handledBy(new Inflector<ContainerRequestContext, Response>() {
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
 
                     @Override
-                    public Response apply(ContainerRequestContext data) {
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
 
                         Optional<String> idParam = getId(data);
                         if (idParam.isEmpty()) {
-                            return status(Response.Status.BAD_REQUEST).build();
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
                         String id = idParam.get();
 
+                        Optional<List<String>> entityTags = getEntityTags(data, HttpHeaders.IF_MATCH, false);
+                        if (entityTags.isPresent()) {
+                            return gateway.deleteIfMatchAsync(id, entityTags.get())
+                                    .thenApply(deleted -> deleted ? noContent().build() : status(Response.Status.PRECONDITION_FAILED).build())
+                                    .exceptionally(getFailureResponder(logger, "exception while deleting entity"));
+                        }
+                        return gateway.deleteAsync(id)
+                                .thenApply(nothing -> noContent().build())
+                                .exceptionally(getFailureResponder(logger, "exception while deleting entity"));
+                    }
+                });
+
+        final Resource.Builder neighborsBuilder = resourceBuilder.addChildResource("{id}/neighbors");
+
+        neighborsBuilder.addMethod("GET")
+                .produces(MediaType.APPLICATION_JSON_TYPE)
+                .handledBy(getNeighborsResponder(gateway, traversalGateway, responseExecutor, logger, false));
+
+        neighborsBuilder.addMethod("GET")
+                .produces(APPLICATION_NDJSON)
+                .handledBy(getNeighborsResponder(gateway, traversalGateway, responseExecutor, logger, true));
+
+        resourceBuilder
+                .addChildResource("{id}/path")
+                .addMethod("GET")
+                .produces(MediaType.APPLICATION_JSON_TYPE)
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
+
+                    @Override
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
+
+                        Optional<String> idParam = getId(data);
+                        Optional<String> toParam = getQueryParameter(data, "to");
+                        if (idParam.isEmpty() || toParam.isEmpty()) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                        }
+                        String id = idParam.get();
+
+                        //the other end is given by its path relative to the API root, such as "places/{id}"
+                        String[] target = toParam.get().split("/", 2);
+                        if (target.length != 2 || !isValidId(target[1]) || !target[0].endsWith("s")
+                                || !traversalGateway.getEntityTypes().contains(target[0].substring(0, target[0].length() - 1))) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                        }
+                        String targetType = target[0].substring(0, target[0].length() - 1);
+
+                        int maxDepth;
+                        Set<String> edges;
                         try {
-                            gateway.delete(id);
-                        } catch (Exception ex) {
-                            logger.log(Level.SEVERE, "exception while deleting entity", ex);
-                            return serverError().build();
+                            maxDepth = getDepth(data, "maxDepth", traversalGateway.getMaxDepth(), traversalGateway);
+                            edges = getEdges(data, traversalGateway);
+                        } catch (IllegalArgumentException ex) {
+                            return completedFuture(status(Response.Status.BAD_REQUEST).build());
                         }
-                        return noContent().build();
+
+                        //a missing start is a 404 like a missing path, including when it is also the target
+                        return gateway.existsAsync(id)
+                                .thenCompose(exists -> exists
+                                        ? gateway.submit(() -> traversalGateway.path(gateway.getEntityType(), id, targetType, target[1], maxDepth, edges))
+                                        : completedFuture(Optional.<JsonObject>empty()))
+                                .thenApply(result -> {
+                                    if (result.isPresent()) {
+                                        return ok(RequestTiming.time(RequestTiming.Phase.SERIALIZE, result.get()::toString)).build();
+                                    } else {
+                                        return status(Response.Status.NOT_FOUND).build();
+                                    }
+                                })
+                                .exceptionally(getFailureResponder(logger, "exception while finding path"));
                     }
                 });
 
+        return resourceBuilder.build();
+
+
+    }
+
+    private static Inflector<ContainerRequestContext, CompletionStage<Response>> getNeighborsResponder(EntityGraphGateway gateway,
+                                                                                                       TraversalGraphGateway traversalGateway,
+                                                                                                       Executor responseExecutor,
+                                                                                                       Logger logger, boolean delimited) {
+        return new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
+
+            @Override
+            public CompletionStage<Response> apply(ContainerRequestContext data) {
+
+                Optional<String> idParam = getId(data);
+                if (idParam.isEmpty()) {
+                    return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                }
+                String id = idParam.get();
+
+                int depth;
+                Set<String> edges;
+                TraversalGraphGateway.Direction direction;
+                int limit;
+                try {
+                    depth = getDepth(data, "depth", 1, traversalGateway);
+                    edges = getEdges(data, traversalGateway);
+                    direction = TraversalGraphGateway.Direction.valueOf(getQueryParameter(data, "direction").orElse("both").toUpperCase(Locale.ROOT));
+                    limit = getLimit(data).orElse(traversalGateway.getMaxNodes());
+                } catch (IllegalArgumentException ex) {
+                    return completedFuture(status(Response.Status.BAD_REQUEST).build());
+                }
+
+                //the neighbourhood is bounded by the node limit, so it is collected on the pool's executor and written out from the response executor
+                Supplier<byte[]> neighbors = () -> {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    EntityStreamWriter writer = delimited ? EntityStreamWriter.delimited(output) : EntityStreamWriter.array(output);
+                    traversalGateway.neighbors(gateway.getEntityType(), id, depth, edges, direction, limit, writer);
+                    writer.finish();
+                    return output.toByteArray();
+                };
+                //a missing entity is a 404 rather than an empty neighbourhood
+                return gateway.existsAsync(id)
+                        .thenCompose(exists -> exists
+                                ? gateway.submit(neighbors).thenApplyAsync(bytes -> ok(bytes).build(), responseExecutor)
+                                : completedFuture(status(Response.Status.NOT_FOUND).build()))
+                        .exceptionally(getFailureResponder(logger, "exception while streaming neighbors"));
+            }
+        };
+    }
+
+    public static Resource createBatch(EntityGraphGateway gateway, Logger logger, int chunkSize) {
+
+        final String entityIdKey = gateway.getEntityType() + "Id";
+
+        final Resource.Builder resourceBuilder = Resource.builder("/" + gateway.getEntityType() + "s:batch");
+
+        resourceBuilder
+                .addMethod("POST")
+                .consumes(MediaType.APPLICATION_JSON_TYPE, MediaType.valueOf(APPLICATION_NDJSON))
+                .produces(MediaType.APPLICATION_JSON_TYPE)
+                .handledBy(new Inflector<ContainerRequestContext, CompletionStage<Response>>() {
+
+                    @Override
+                    public CompletionStage<Response> apply(ContainerRequestContext data) {
+                        //the request body is consumed on the pool's executor as chunks are loaded
+                        return gateway.submit(() -> load(data))
+                                .exceptionally(getFailureResponder(logger, "exception while loading entity batch"));
+                    }
+
+                    private Response load(ContainerRequestContext data) {
+
+                        Stream<JsonValue> items;
+                        try {
+                            items = getEntities(data);
+                        } catch (Exception ex) {
+                            return status(Response.Status.BAD_REQUEST).build();
+                        }
+
+                        long startTime = System.nanoTime();
+                        List<JsonObject> results = new ArrayList<>();
+                        List<Integer> chunkIndexes = new ArrayList<>();
+                        List<String> chunkIds = new ArrayList<>();
+                        List<JsonObject> chunkObjects = new ArrayList<>();
+                        try {
+                            items.forEachOrdered(item -> {
+                                int index = results.size();
+                                results.add(null);
+                                if (item.getValueType() != JsonValue.ValueType.OBJECT
+                                        || !item.asJsonObject().containsKey(entityIdKey)
+                                        || item.asJsonObject().get(entityIdKey).getValueType() != JsonValue.ValueType.STRING) {
+                                    results.set(index, getBatchResult(index, null, Response.Status.BAD_REQUEST));
+                                    return;
+                                }
+                                //an id that cannot be made into an IRI would fail the whole chunk's update
+                                if (!isValidId(item.asJsonObject().getString(entityIdKey))) {
+                                    results.set(index, getBatchResult(index, item.asJsonObject().getString(entityIdKey), Response.Status.BAD_REQUEST));
+                                    return;
+                                }
+                                JsonObject jsonObject = item.asJsonObject();
+                                chunkIndexes.add(index);
+                                chunkIds.add(jsonObject.getString(entityIdKey));
+                                chunkObjects.add(jsonObject);
+                                if (chunkIds.size() == chunkSize) {
+                                    loadChunk(chunkIndexes, chunkIds, chunkObjects, results);
+                                }
+                            });
+                        } catch (JsonException ex) {
+                            //the items before it may already have been written, so the report still goes back, with the parse error in place of the rest
+                            int index = results.size();
+                            results.add(Json.createObjectBuilder()
+                                    .add("index", index)
+                                    .add("status", Response.Status.BAD_REQUEST.getStatusCode())
+                                    .add("error", String.valueOf(ex.getMessage()))
+                                    .build());
+                        }
+                        loadChunk(chunkIndexes, chunkIds, chunkObjects, results);
+
+                        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+                        long created = results.stream().filter(r -> r.getInt("status") == Response.Status.CREATED.getStatusCode()).count();
+                        double entitiesPerSecond = elapsedSeconds > 0 ? created / elapsedSeconds : 0;
+                        logger.log(Level.INFO, String.format("batch loaded %d of %d %s entities in %.3fs (%.1f entities/sec)",
+                                created, results.size(), gateway.getEntityType(), elapsedSeconds, entitiesPerSecond));
+
+                        JsonArrayBuilder resultArray = Json.createArrayBuilder();
+                        results.forEach(resultArray::add);
+                        JsonObject report = Json.createObjectBuilder()
+                                .add("results", resultArray)
+                                .add("count", results.size())
+                                .add("created", created)
+                                .add("elapsedMillis", Math.round(elapsedSeconds * 1000))
+                                .add("entitiesPerSecond", entitiesPerSecond)
+                                .build();
+                        return ok(report.toString()).build();
+                    }
+
+                    private JsonObject getBatchResult(int index, String id, Response.Status status) {
+                        JsonObjectBuilder builder = Json.createObjectBuilder().add("index", index);
+                        if (id != null) {
+                            builder.add(entityIdKey, id);
+                        }
+                        return builder.add("status", status.getStatusCode()).build();
+                    }
+
+                    private void loadChunk(List<Integer> indexes, List<String> ids, List<JsonObject> objects, List<JsonObject> results) {
+                        if (ids.isEmpty()) {
+                            return;
+                        }
+                        List<EntityGraphGateway.CreateOutcome> outcomes = null;
+                        try {
+                            outcomes = gateway.createAll(ids, objects);
+                        } catch (Exception ex) {
+                            logger.log(Level.SEVERE, "exception while creating entity batch", ex);
+                        }
+                        for (int i = 0; i < ids.size(); i++) {
+                            Response.Status status;
+                            if (outcomes == null) {
+                                status = Response.Status.INTERNAL_SERVER_ERROR;
+                            } else {
+                                switch (outcomes.get(i)) {
+                                    case CREATED:
+                                        status = Response.Status.CREATED;
+                                        break;
+                                    case CONFLICT:
+                                        status = Response.Status.CONFLICT;
+                                        break;
+                                    default:
+                                        status = Response.Status.BAD_REQUEST;
+                                }
+                            }
+                            results.set(indexes.get(i), getBatchResult(indexes.get(i), ids.get(i), status));
+                        }
+                        indexes.clear();
+                        ids.clear();
+                        objects.clear();
+                    }
+                });
 
         return resourceBuilder.build();
 
+    }
 
+    private static Function<Throwable, Response> getFailureResponder(Logger logger, String message) {
+        return ex -> {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof RejectedExecutionException) {
+                logger.log(Level.WARNING, "database request queue is full");
+                return status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1).build();
+            }
+            if (cause instanceof CircuitBreaker.OpenException) {
+                logger.log(Level.FINE, "database circuit is open");
+                return getUnavailableResponse((CircuitBreaker.OpenException) cause);
+            }
+            if (cause instanceof WriteBehindQueue.PendingException) {
+                logger.log(Level.WARNING, cause.getMessage());
+                return status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1).build();
+            }
+            logger.log(Level.SEVERE, message, cause);
+            return serverError().build();
+        };
+    }
+
+    public static Response getUnavailableResponse(CircuitBreaker.OpenException ex) {
+        return status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, ex.getRetryAfterSeconds()).build();
     }
 
     public static Optional<JsonObject> getEntity(ContainerRequestContext data) {
+        long startNanos = System.nanoTime();
         try (JsonReader reader = Json.createReader(data.getEntityStream())) {
             return Optional.of(reader.readObject());
         } catch (Exception ex) {
             return Optional.empty();
+        } finally {
+            RequestTiming.record(RequestTiming.Phase.PARSE, startNanos, Map.of());
+        }
+
+    }
+
+    public static Stream<JsonValue> getEntities(ContainerRequestContext data) {
+        if (data.getMediaType() != null && data.getMediaType().isCompatible(MediaType.valueOf(APPLICATION_NDJSON))) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(data.getEntityStream(), StandardCharsets.UTF_8));
+            return reader.lines()
+                    .filter(line -> !line.isBlank())
+                    .map(line -> {
+                        try (JsonReader lineReader = Json.createReader(new StringReader(line))) {
+                            return lineReader.readValue();
+                        } catch (JsonException ex) {
+                            return JsonValue.NULL;
+                        }
+                    });
         }
+        JsonParser parser = Json.createParser(data.getEntityStream());
+        if (!parser.hasNext() || parser.next() != JsonParser.Event.START_ARRAY) {
+            throw new IllegalArgumentException("expected a JSON array of entities");
+        }
+        return parser.getArrayStream();
+    }
+
+    public static boolean isValidId(String entityId) {
+        return VALID_ID.matcher(entityId).matches();
+    }
+
+    public static Optional<String> getQueryParameter(ContainerRequestContext data, String name) {
+        return Optional.ofNullable(data.getUriInfo().getQueryParameters().getFirst(name));
+    }
+
+    public static OptionalInt getLimit(ContainerRequestContext data) throws IllegalArgumentException {
+        Optional<String> limitParam = getQueryParameter(data, "limit");
+        if (limitParam.isEmpty()) {
+            return OptionalInt.empty();
+        }
+        int limit = Integer.parseInt(limitParam.get());
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return OptionalInt.of(limit);
+    }
+
+    public static Set<String> getExpand(ContainerRequestContext data, EntityGraphGateway gateway) throws IllegalArgumentException {
+        Optional<String> expandParam = getQueryParameter(data, "expand");
+        if (expandParam.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> expand = Arrays.stream(expandParam.get().split(","))
+                .map(String::trim)
+                .filter(propertyName -> !propertyName.isEmpty())
+                .collect(Collectors.toSet());
+        if (!gateway.getObjectProperties().keySet().containsAll(expand)) {
+            throw new IllegalArgumentException("only object properties can be expanded");
+        }
+        return expand;
+    }
+
+    public static int getDepth(ContainerRequestContext data, String name, int defaultDepth, TraversalGraphGateway traversalGateway)
+            throws IllegalArgumentException {
+        Optional<String> depthParam = getQueryParameter(data, name);
+        int depth = depthParam.isPresent() ? Integer.parseInt(depthParam.get()) : defaultDepth;
+        if (depth <= 0 || depth > traversalGateway.getMaxDepth()) {
+            throw new IllegalArgumentException(name + " must be between 1 and " + traversalGateway.getMaxDepth());
+        }
+        return depth;
+    }
+
+    public static Set<String> getEdges(ContainerRequestContext data, TraversalGraphGateway traversalGateway) throws IllegalArgumentException {
+        Optional<String> edgesParam = getQueryParameter(data, "edges");
+        if (edgesParam.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> edges = Arrays.stream(edgesParam.get().split(","))
+                .map(String::trim)
+                .filter(edgeType -> !edgeType.isEmpty())
+                .collect(Collectors.toSet());
+        if (edges.isEmpty() || !traversalGateway.getEdgeTypes().containsAll(edges)) {
+            throw new IllegalArgumentException("only object properties can be followed");
+        }
+        return edges;
+    }
+
+    public static Optional<List<String>> getEntityTags(ContainerRequestContext data, String headerName, boolean weakComparison) {
+        //tags are unquoted, and "*" is kept as is to stand for any current version
+        String header = data.getHeaderString(headerName);
+        if (header == null || header.isBlank()) {
+            return Optional.empty();
+        }
+        List<String> entityTags = new ArrayList<>();
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return Optional.of(List.of(tag));
+            }
+            if (tag.startsWith("W/")) {
+                if (!weakComparison) {
+                    continue;
+                }
+                tag = tag.substring(2);
+            }
+            if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                entityTags.add(tag.substring(1, tag.length() - 1));
+            }
+        }
+        return Optional.of(entityTags);
+    }
 
+    private static boolean isMatch(List<String> entityTags, String version) {
+        return entityTags.contains("*") || entityTags.contains(version);
     }
 
     public static Optional<String> getId(ContainerRequestContext data) {
@@ -269,7 +806,8 @@ public class EntityResourceFactory {
         if (values.size() != 1) {
             return Optional.empty();
         }
-        return Optional.of(values.get(0));
+        //held to the same rule as a created id, so every handler answers 400 rather than failing to build the IRI
+        return Optional.of(values.get(0)).filter(EntityResourceFactory::isValidId);
     }
 
 }
@@ -1,18 +1,49 @@
 package systems.cauldron.service.entitygraph.resource;
 
 import io.helidon.webserver.ServerRequest;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryCancelledException;
 import org.apache.jena.query.QueryException;
+import org.apache.jena.riot.WebContent;
+import systems.cauldron.service.entitygraph.ServerConfig;
+import systems.cauldron.service.entitygraph.gateway.CircuitBreaker;
+import systems.cauldron.service.entitygraph.gateway.GraphConnectionPool;
 import systems.cauldron.service.entitygraph.gateway.QueryGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.util.QueryResultCache;
+import systems.cauldron.service.entitygraph.gateway.util.QueryStatistics;
+import systems.cauldron.service.entitygraph.gateway.util.ReadYourWrites;
+import systems.cauldron.service.entitygraph.gateway.util.RequestTiming;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Variant;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,30 +52,217 @@ public class QueryResource {
 
     private static Logger logger = Logger.getGlobal();
 
+    //in order of preference when the client accepts several
+    private static final Map<MediaType, QueryGraphGateway.ResultFormat> RESULT_FORMATS = new LinkedHashMap<>();
+
+    static {
+        RESULT_FORMATS.put(MediaType.valueOf(WebContent.contentTypeResultsJSON), QueryGraphGateway.ResultFormat.JSON);
+        RESULT_FORMATS.put(MediaType.valueOf(WebContent.contentTypeResultsThrift), QueryGraphGateway.ResultFormat.THRIFT);
+        RESULT_FORMATS.put(MediaType.valueOf(WebContent.contentTypeTextCSV), QueryGraphGateway.ResultFormat.CSV);
+        RESULT_FORMATS.put(MediaType.valueOf(WebContent.contentTypeTextTSV), QueryGraphGateway.ResultFormat.TSV);
+        RESULT_FORMATS.put(MediaType.valueOf(EntityResourceFactory.APPLICATION_NDJSON), QueryGraphGateway.ResultFormat.NDJSON);
+    }
+
+    //set when the query had no LIMIT, or a larger one than allowed, so the client knows results may be truncated
+    public static final String ROW_LIMIT_HEADER = "X-Row-Limit";
+
+    private static final CacheControl REVALIDATE = CacheControl.valueOf("no-cache");
+
+    private static final List<Variant> RESULT_VARIANTS = Variant.mediaTypes(RESULT_FORMATS.keySet().toArray(MediaType[]::new)).build();
+
     @Inject
     private ServerRequest request;
 
+    @Context
+    private Request jaxrsRequest;
+
     private QueryGraphGateway gateway;
+    private GraphConnectionPool connectionPool;
+    private Executor executor;
+    private QueryStatistics statistics;
+    private long timeoutMillis;
+    private long maxRows;
 
     @PostConstruct
     public void initialize() {
-        String graphEndpointUrl = request.context().get("databaseUrl", String.class).orElseThrow();
-        gateway = new QueryGraphGateway(graphEndpointUrl);
+        connectionPool = request.context().get(GraphConnectionPool.class).orElseThrow();
+        gateway = new QueryGraphGateway(connectionPool, request.context().get(QueryResultCache.class).orElse(null));
+        executor = connectionPool.getExecutor();
+        statistics = request.context().get(QueryStatistics.class).orElseThrow();
+        ServerConfig config = request.context().get(ServerConfig.class).orElseThrow();
+        timeoutMillis = config.getQueryTimeoutMillis();
+        maxRows = config.getQueryMaxRows();
     }
 
     @POST
     @Consumes("application/sparql-query")
-    @Produces("application/sparql-results+json")
-    public Response query(String queryString) {
-        StreamingOutput streamingOutput = output -> {
+    @Produces({WebContent.contentTypeResultsJSON, WebContent.contentTypeResultsThrift, WebContent.contentTypeTextCSV,
+            WebContent.contentTypeTextTSV, EntityResourceFactory.APPLICATION_NDJSON})
+    public void query(String queryString,
+                      @QueryParam("timeout") Long requestedTimeoutMillis,
+                      @HeaderParam(HttpHeaders.IF_NONE_MATCH) String entityTags,
+                      @Suspended AsyncResponse asyncResponse) {
+        Variant variant = jaxrsRequest.selectVariant(RESULT_VARIANTS);
+        if (variant == null) {
+            asyncResponse.resume(Response.notAcceptable(RESULT_VARIANTS).build());
+            return;
+        }
+        QueryGraphGateway.ResultFormat format = RESULT_FORMATS.get(variant.getMediaType());
+        //the query is parsed up front so a bad one is rejected before any of the response has been written
+        Query query;
+        long parseStartNanos = System.nanoTime();
+        try {
+            query = QueryGraphGateway.parse(queryString);
+        } catch (QueryException | IllegalArgumentException ex) {
+            logger.log(Level.WARNING, "provided query string is not a SPARQL SELECT query");
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        RequestTiming.record(RequestTiming.Phase.PARSE, parseStartNanos, Map.of());
+        //a client may ask for a shorter timeout than the configured one, never a longer one
+        if (requestedTimeoutMillis != null && requestedTimeoutMillis <= 0) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        long queryTimeoutMillis = requestedTimeoutMillis == null ? timeoutMillis : Math.min(requestedTimeoutMillis, timeoutMillis);
+        boolean rowCapped = !query.hasLimit() || query.getLimit() > maxRows;
+        if (rowCapped) {
+            query.setLimit(maxRows);
+            statistics.recordRowCapped();
+        }
+        //resuming from the pool's executor means the results are fetched and written there rather than on a request thread
+        try {
+            connectionPool.checkAvailable();
+            long submittedNanos = System.nanoTime();
+            executor.execute(RequestTiming.propagate(ReadYourWrites.propagate(() -> {
+                RequestTiming.record(RequestTiming.Phase.QUEUE, submittedNanos, Map.of());
+                asyncResponse.resume(execute(query, format, variant.getMediaType(), queryTimeoutMillis, rowCapped, entityTags));
+            })));
+        } catch (RejectedExecutionException ex) {
+            logger.log(Level.WARNING, "database request queue is full");
+            asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1).build());
+        } catch (CircuitBreaker.OpenException ex) {
+            asyncResponse.resume(EntityResourceFactory.getUnavailableResponse(ex));
+        }
+    }
+
+    private Response execute(Query query, QueryGraphGateway.ResultFormat format, MediaType mediaType, long queryTimeoutMillis,
+                             boolean rowCapped, String entityTags) {
+        Optional<QueryResultCache.Result> cachedResult;
+        try {
+            cachedResult = gateway.queryCached(query, format, queryTimeoutMillis);
+        } catch (QueryCancelledException ex) {
+            statistics.recordTimedOut();
+            logger.log(Level.WARNING, "query exceeded timeout of " + queryTimeoutMillis + "ms");
+            return getTimeoutResponse(queryTimeoutMillis);
+        } catch (CircuitBreaker.OpenException ex) {
+            statistics.recordFailed();
+            return EntityResourceFactory.getUnavailableResponse(ex);
+        } catch (RuntimeException ex) {
+            statistics.recordFailed();
+            logger.log(Level.SEVERE, "exception while executing query", ex);
+            return Response.serverError().build();
+        }
+        Response.ResponseBuilder responseBuilder;
+        if (cachedResult.isPresent()) {
+            statistics.recordCompleted();
+            //clients may keep the result but must revalidate, since any entity write invalidates it
+            EntityTag entityTag = new EntityTag(cachedResult.get().getEntityTag());
+            responseBuilder = isMatch(entityTags, entityTag)
+                    ? Response.notModified(entityTag)
+                    : Response.ok(cachedResult.get().getBytes(), mediaType).tag(entityTag);
+            responseBuilder.cacheControl(REVALIDATE);
+        } else {
+            responseBuilder = Response.ok(getStreamingOutput(query, format, queryTimeoutMillis), mediaType);
+        }
+        if (rowCapped) {
+            responseBuilder.header(ROW_LIMIT_HEADER, maxRows);
+        }
+        return responseBuilder.build();
+    }
+
+    private StreamingOutput getStreamingOutput(Query query, QueryGraphGateway.ResultFormat format, long queryTimeoutMillis) {
+        return output -> {
+            ClientOutputStream clientOutput = new ClientOutputStream(output);
             try {
-                gateway.query(queryString, output);
-            } catch (QueryException | IllegalArgumentException ex) {
-                logger.log(Level.WARNING, "provided query string is not a SPARQL SELECT query");
-                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+                gateway.query(query, format, clientOutput, queryTimeoutMillis);
+                statistics.recordCompleted();
+            } catch (QueryCancelledException ex) {
+                //an error status can only reach the client if no results were flushed before the timeout
+                statistics.recordTimedOut();
+                logger.log(Level.WARNING, "query exceeded timeout of " + queryTimeoutMillis + "ms");
+                throw new WebApplicationException(getTimeoutResponse(queryTimeoutMillis));
+            } catch (CircuitBreaker.OpenException ex) {
+                statistics.recordFailed();
+                throw new WebApplicationException(EntityResourceFactory.getUnavailableResponse(ex));
+            } catch (RuntimeException ex) {
+                if (clientOutput.failed) {
+                    statistics.recordCancelled();
+                    logger.log(Level.INFO, "query cancelled after client disconnected");
+                } else {
+                    statistics.recordFailed();
+                    logger.log(Level.SEVERE, "exception while executing query", ex);
+                }
+                throw ex;
             }
         };
-        return Response.ok(streamingOutput).build();
+    }
+
+    private static Response getTimeoutResponse(long queryTimeoutMillis) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("query exceeded timeout of " + queryTimeoutMillis + "ms")
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .build();
+    }
+
+    private static boolean isMatch(String entityTags, EntityTag entityTag) {
+        if (entityTags == null) {
+            return false;
+        }
+        return Arrays.stream(entityTags.split(","))
+                .map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals("*") || tag.equals("\"" + entityTag.getValue() + "\""));
+    }
+
+    private static class ClientOutputStream extends FilterOutputStream {
+
+        //only a failed write to the client means it went away; an IO error from the store is a failed query
+        private volatile boolean failed;
+
+        private ClientOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
     }
 
 }
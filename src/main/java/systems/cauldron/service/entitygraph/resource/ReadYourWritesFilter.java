@@ -0,0 +1,57 @@
+package systems.cauldron.service.entitygraph.resource;
+
+import systems.cauldron.service.entitygraph.gateway.util.ReadYourWrites;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.ext.Provider;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+@Provider
+public class ReadYourWritesFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    public static final String WRITTEN_UNTIL_COOKIE = "written-until";
+
+    private static final String SESSION_PROPERTY = ReadYourWritesFilter.class.getName() + ".session";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        long deadlineMillis = 0;
+        Cookie cookie = requestContext.getCookies().get(WRITTEN_UNTIL_COOKIE);
+        if (cookie != null) {
+            try {
+                deadlineMillis = Long.parseLong(cookie.getValue());
+            } catch (NumberFormatException ex) {
+                //not one of ours, so the client is treated as one that has not written
+            }
+        }
+        ReadYourWrites session = new ReadYourWrites(deadlineMillis);
+        requestContext.setProperty(SESSION_PROPERTY, session);
+        //the resource method runs on this thread, and hands the session on to the pool threads it submits work to
+        session.attach();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        ReadYourWrites session = (ReadYourWrites) requestContext.getProperty(SESSION_PROPERTY);
+        if (session == null) {
+            return;
+        }
+        session.detach();
+        OptionalLong deadlineMillis = session.getWriteDeadlineMillis();
+        if (deadlineMillis.isPresent()) {
+            //the client's reads go to the primary until the deadline, which the cookie outlives by less than a second
+            long remainingMillis = Math.max(0, deadlineMillis.getAsLong() - System.currentTimeMillis());
+            int maxAge = Math.toIntExact(TimeUnit.MILLISECONDS.toSeconds(remainingMillis + TimeUnit.SECONDS.toMillis(1) - 1));
+            responseContext.getHeaders().add(HttpHeaders.SET_COOKIE, new NewCookie(WRITTEN_UNTIL_COOKIE, String.valueOf(deadlineMillis.getAsLong()),
+                    "/", null, null, maxAge, false, true));
+        }
+    }
+
+}
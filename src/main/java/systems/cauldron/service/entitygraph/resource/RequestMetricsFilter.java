@@ -0,0 +1,73 @@
+package systems.cauldron.service.entitygraph.resource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.uri.UriTemplate;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+@Provider
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String START_PROPERTY = RequestMetricsFilter.class.getName() + ".start";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public RequestMetricsFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        //runs when the response starts, so a streamed body is timed up to its first byte
+        Object start = requestContext.getProperty(START_PROPERTY);
+        if (start == null) {
+            return;
+        }
+        long durationNanos = System.nanoTime() - (long) start;
+        String method = requestContext.getMethod();
+        String route = getRoute(requestContext);
+        String status = String.valueOf(responseContext.getStatus());
+        timers.computeIfAbsent(method + " " + route + " " + status, key -> Timer.builder("http.server.requests")
+                .description("Requests to the graph API")
+                .tag("method", method)
+                .tag("route", route)
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(meterRegistry))
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    static String getRoute(ContainerRequestContext requestContext) {
+        //the matched templates rather than the request path, so every entity id shares one series
+        List<UriTemplate> templates = ((ExtendedUriInfo) requestContext.getUriInfo()).getMatchedTemplates();
+        if (templates.isEmpty()) {
+            return "unmatched";
+        }
+        StringBuilder route = new StringBuilder();
+        for (int i = templates.size() - 1; i >= 0; i--) {
+            String template = templates.get(i).getTemplate();
+            if (!template.startsWith("/")) {
+                route.append('/');
+            }
+            route.append(template);
+        }
+        return route.toString().replaceAll("/+", "/");
+    }
+
+}
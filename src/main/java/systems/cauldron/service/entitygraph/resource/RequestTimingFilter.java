@@ -0,0 +1,110 @@
+package systems.cauldron.service.entitygraph.resource;
+
+import systems.cauldron.service.entitygraph.gateway.util.RequestTiming;
+import systems.cauldron.service.entitygraph.gateway.util.TraceLog;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Provider
+public class RequestTimingFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+    public static final String TRACE_PARENT_HEADER = "traceparent";
+
+    private static final String TIMING_PROPERTY = RequestTimingFilter.class.getName() + ".timing";
+    private static final String METHOD_PROPERTY = RequestTimingFilter.class.getName() + ".method";
+    private static final String ROUTE_PROPERTY = RequestTimingFilter.class.getName() + ".route";
+    private static final String STATUS_PROPERTY = RequestTimingFilter.class.getName() + ".status";
+
+    //W3C trace context: version, trace id, parent span id, flags; all-zero ids are invalid
+    private static final Pattern TRACE_PARENT = Pattern.compile("00-(?!0{32})([0-9a-f]{32})-(?!0{16})([0-9a-f]{16})-([0-9a-f]{2})");
+
+    private final boolean serverTiming;
+    private final TraceLog traceLog;
+
+    public RequestTimingFilter(boolean serverTiming, TraceLog traceLog) {
+        this.serverTiming = serverTiming;
+        this.traceLog = traceLog;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        String traceId = null;
+        String parentSpanId = null;
+        Boolean parentSampled = null;
+        String traceParent = requestContext.getHeaderString(TRACE_PARENT_HEADER);
+        if (traceParent != null) {
+            Matcher matcher = TRACE_PARENT.matcher(traceParent.trim());
+            if (matcher.matches()) {
+                traceId = matcher.group(1);
+                parentSpanId = matcher.group(2);
+                parentSampled = (Integer.parseInt(matcher.group(3), 16) & 1) == 1;
+            }
+        }
+        RequestTiming timing = new RequestTiming(traceId, parentSpanId, traceLog != null && traceLog.isSampled(parentSampled));
+        requestContext.setProperty(TIMING_PROPERTY, timing);
+        //the resource method runs on this thread, and hands the timing on to the pool threads it submits work to
+        timing.attach();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        RequestTiming timing = (RequestTiming) requestContext.getProperty(TIMING_PROPERTY);
+        if (timing == null) {
+            return;
+        }
+        timing.detach();
+        //headers go out before the body, so a streamed body's time is only in the trace record
+        if (serverTiming) {
+            responseContext.getHeaders().add(SERVER_TIMING_HEADER, timing.getServerTiming());
+            responseContext.getHeaders().add("Timing-Allow-Origin", "*");
+        }
+        if (!responseContext.hasEntity()) {
+            finish(timing, requestContext.getMethod(), RequestMetricsFilter.getRoute(requestContext), responseContext.getStatus());
+        } else if (timing.isSampled()) {
+            //kept for when the body has been written
+            requestContext.setProperty(METHOD_PROPERTY, requestContext.getMethod());
+            requestContext.setProperty(ROUTE_PROPERTY, RequestMetricsFilter.getRoute(requestContext));
+            requestContext.setProperty(STATUS_PROPERTY, responseContext.getStatus());
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        RequestTiming timing = (RequestTiming) context.getProperty(TIMING_PROPERTY);
+        if (timing == null) {
+            context.proceed();
+            return;
+        }
+        //a streamed body reads from the store as it is written, so those round trips belong to this request too
+        RequestTiming previous = timing.attach();
+        try {
+            context.proceed();
+        } finally {
+            RequestTiming.restore(previous);
+            finish(timing, (String) context.getProperty(METHOD_PROPERTY), (String) context.getProperty(ROUTE_PROPERTY),
+                    (Integer) context.getProperty(STATUS_PROPERTY));
+        }
+    }
+
+    private void finish(RequestTiming timing, String method, String route, Integer status) {
+        if (!timing.finish() || !timing.isSampled()) {
+            return;
+        }
+        traceLog.write(timing, method + " " + route, Map.of(
+                "http.method", method,
+                "http.route", route,
+                "http.status_code", String.valueOf(status)), status);
+    }
+
+}
@@ -4,39 +4,62 @@ import io.helidon.webserver.WebServer;
 import org.apache.jena.fuseki.main.FusekiServer;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.system.Txn;
+import org.apache.jena.vocabulary.RDF;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import systems.cauldron.service.entitygraph.gateway.DatasetGraphConnectionPool;
+import systems.cauldron.service.entitygraph.gateway.EntityGraphGateway;
+import systems.cauldron.service.entitygraph.gateway.UserGraphGateway;
+import systems.cauldron.service.entitygraph.resource.EntityResourceFactory;
 
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonReader;
 import javax.json.JsonValue;
+import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.net.CookieHandler;
+import java.net.CookieManager;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.ServerSocket;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class ServerTest {
@@ -52,6 +75,9 @@ public class ServerTest {
         config.setServerPort(getRandomAvailablePort());
         config.setDatabaseAddress(InetAddress.getLocalHost().getHostAddress());
         config.setDatabasePort(getRandomAvailablePort());
+        //the graph store is restarted for every test, so pooled sockets are checked each time they are leased
+        config.setDatabaseValidateAfterInactivityMillis(1);
+        config.setQueryCacheMaxBytes(64L * 1024 * 1024);
         config.setHealthPort(getRandomAvailablePort());
         webServer = Server.start(config);
         while (!webServer.isRunning()) {
@@ -59,6 +85,19 @@ public class ServerTest {
         }
     }
 
+    private static RunningServer startServer(Consumer<ServerConfig> configurer) throws Exception {
+        ServerConfig serverConfig = new ServerConfig();
+        serverConfig.setServerAddress(InetAddress.getLocalHost());
+        serverConfig.setServerPort(getRandomAvailablePort());
+        serverConfig.setHealthPort(getRandomAvailablePort());
+        configurer.accept(serverConfig);
+        WebServer webServer = Server.start(serverConfig);
+        while (!webServer.isRunning()) {
+            Thread.sleep(100);
+        }
+        return new RunningServer(serverConfig, webServer);
+    }
+
     private static int getRandomAvailablePort() throws IOException {
         try (ServerSocket socket = new ServerSocket(0)) {
             return socket.getLocalPort();
@@ -103,6 +142,16 @@ public class ServerTest {
         assertHealthyOverall(config.getReadinessUrl());
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        loadEntities("users");
+        String metrics = readMetrics(config.getMetricsUrl());
+        assertTrue(metrics.contains("http_server_requests_seconds_count{method=\"POST\",route=\"/users\",status=\"201\",}"));
+        assertTrue(metrics.contains("graph_store_requests_seconds_count{endpoint=\"primary\",entity=\"user\",operation=\"create\",outcome=\"success\",}"));
+        assertTrue(metrics.contains("executor_pool_size_threads{name=\"graph-io\",}"));
+        assertTrue(metrics.contains("jvm_memory_used_bytes"));
+    }
+
     @Test
     public void testUserEntity() throws Exception {
         testEntity("user", "name", Collections.singleton("name"));
@@ -135,6 +184,401 @@ public class ServerTest {
         assertEntityListing(apiRoot, entityIdKey, jsonObjects);
     }
 
+    @Test
+    public void testPatchAddsMissingProperty() throws Exception {
+        String testLocation = config.getApiUrl() + "/users/brucebanner";
+        JsonObject entity = Json.createObjectBuilder()
+                .add("userId", "brucebanner")
+                .add("name", "Bruce Banner")
+                .build();
+        JsonObject patch = Json.createObjectBuilder()
+                .add("company", "Avengers Inc.")
+                .build();
+        JsonObject patched = Json.createObjectBuilder(entity)
+                .add("company", "Avengers Inc.")
+                .build();
+        assertEquals(201, createOrUpdateEntity(testLocation, entity));
+        assertEquals(400, updateEntity(config.getApiUrl() + "/users/bruce%20banner", patch));
+        assertEquals(204, updateEntity(testLocation, patch));
+        assertEntityExists(testLocation, patched);
+        deleteEntity(testLocation);
+        assertEntityNotExists(testLocation);
+    }
+
+    @Test
+    public void testConditionalRequests() throws Exception {
+        String testLocation = config.getApiUrl() + "/users/peterparker";
+        JsonObject entity = Json.createObjectBuilder()
+                .add("userId", "peterparker")
+                .add("name", "Peter Parker")
+                .build();
+        JsonObject modified = Json.createObjectBuilder(entity)
+                .add("company", "Daily Bugle")
+                .build();
+        assertEquals(201, createOrUpdateEntity(testLocation, entity));
+        HttpURLConnection connection = (HttpURLConnection) tryConstructUrl(testLocation).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        String entityTag = connection.getHeaderField("ETag");
+        assertNotNull(entityTag);
+        connection = (HttpURLConnection) tryConstructUrl(testLocation).openConnection();
+        connection.setRequestProperty("If-None-Match", entityTag);
+        assertEquals(304, connection.getResponseCode());
+        assertEquals(200, createOrUpdateEntity(testLocation, modified, entityTag));
+        assertEquals(412, createOrUpdateEntity(testLocation, entity, entityTag));
+        assertEntityExists(testLocation, modified);
+        connection = (HttpURLConnection) tryConstructUrl(testLocation).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        String modifiedTag = connection.getHeaderField("ETag");
+        assertEquals(412, deleteEntity(testLocation, entityTag));
+        assertEquals(204, deleteEntity(testLocation, modifiedTag));
+        assertEntityNotExists(testLocation);
+        //a guarded delete of an entity that is already gone did not match anything
+        assertEquals(412, deleteEntity(testLocation, modifiedTag));
+        assertEquals(412, createOrUpdateEntity(testLocation, entity, "*"));
+        //an entity loaded straight into the store carries no version, but "*" still matches it
+        Txn.executeWrite(dataset, () -> dataset.getDefaultModel().add(
+                ResourceFactory.createResource(EntityResourceFactory.getEntityPath("user", "peterparker")),
+                RDF.type,
+                ResourceFactory.createResource(EntityGraphGateway.NAMESPACE_PREFIX + "user")));
+        assertEquals(200, createOrUpdateEntity(testLocation, entity, "*"));
+        assertEntityExists(testLocation, entity);
+        deleteEntity(testLocation);
+    }
+
+    @Test
+    public void testChangeFeed() throws Exception {
+        String changesUrl = config.getApiUrl() + "/changes?type=user";
+        String testLocation = config.getApiUrl() + "/users/natasharomanoff";
+        JsonObject entity = Json.createObjectBuilder()
+                .add("userId", "natasharomanoff")
+                .add("name", "Natasha Romanoff")
+                .build();
+        assertEquals(201, createOrUpdateEntity(testLocation, entity));
+        JsonObject created = readChangeEvent(changesUrl + "&offset=0", null, "natasharomanoff", "create");
+        assertEquals(entity, created.getJsonObject("entity"));
+        assertEquals(1, created.getInt("revision"));
+        deleteEntity(testLocation);
+        //resuming after the create event picks up the delete that followed it
+        JsonObject deleted = readChangeEvent(changesUrl, Long.toString(created.getJsonNumber("offset").longValue()), "natasharomanoff", "delete");
+        assertTrue(deleted.getJsonNumber("offset").longValue() > created.getJsonNumber("offset").longValue());
+        //an offset from before a restart is ahead of the feed, so the events still held are replayed after a gap
+        List<String> events = readChangeEvents(changesUrl, Long.toString(Long.MAX_VALUE - 1), 2);
+        assertEquals("event: gap", events.get(0));
+        assertTrue(events.get(1).startsWith("id: "));
+    }
+
+    @Test
+    public void testPagedListing() throws Exception {
+        loadEntities("places");
+        String apiRoot = config.getApiUrl() + "/places";
+        List<JsonObject> expected = loadSummaryObjects("/places.json", "placeId", Collections.singleton("name"));
+        List<JsonObject> paged = new ArrayList<>();
+        String pageUrl = apiRoot + "?limit=2";
+        while (pageUrl != null) {
+            pageUrl = readPage(pageUrl, paged);
+        }
+        assertEquals(new HashSet<>(expected), new HashSet<>(paged));
+        assertEquals(expected.size(), paged.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(readStream(apiRoot)));
+        List<JsonObject> lastPage = new ArrayList<>();
+        String next = readPage(apiRoot + "?limit=" + expected.size(), lastPage);
+        assertNotNull(next);
+        assertEquals(200, getStatus(next));
+        assertNull(readPage(next, lastPage));
+        assertEquals(expected.size(), lastPage.size());
+    }
+
+    @Test
+    public void testBatchLoading() throws Exception {
+        List<JsonObject> trips = loadObjects("/trips.json");
+        String batchUrl = config.getApiUrl() + "/trips:batch";
+        JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+        trips.forEach(arrayBuilder::add);
+        String arrayBody = arrayBuilder.build().toString();
+        int conflicting = extractConflictingEntities("tripId", trips).size();
+        JsonObject report = loadBatch(batchUrl, "application/json", arrayBody);
+        assertEquals(trips.size(), report.getInt("count"));
+        assertEquals(trips.size() - conflicting, report.getInt("created"));
+        report = loadBatch(batchUrl, "application/json", arrayBody);
+        assertEquals(0, report.getInt("created"));
+        report.getJsonArray("results").forEach(r -> assertEquals(409, r.asJsonObject().getInt("status")));
+
+        List<JsonObject> places = loadObjects("/places.json");
+        String lines = places.stream().map(JsonObject::toString).collect(Collectors.joining("\n")) + "\n{}\n";
+        report = loadBatch(config.getApiUrl() + "/places:batch", "application/x-ndjson", lines);
+        assertEquals(places.size() + 1, report.getInt("count"));
+        assertEquals(400, report.getJsonArray("results").getJsonObject(places.size()).getInt("status"));
+        assertEntityExists(config.getApiUrl() + "/places/" + places.get(0).getString("placeId"), places.get(0));
+
+        String truncated = "[{\"userId\":\"nickfury\",\"name\":\"Nick Fury\"},{\"userId\":\"not valid\"},{\"userId\":";
+        report = loadBatch(config.getApiUrl() + "/users:batch", "application/json", truncated);
+        assertEquals(3, report.getInt("count"));
+        assertEquals(201, report.getJsonArray("results").getJsonObject(0).getInt("status"));
+        assertEquals(400, report.getJsonArray("results").getJsonObject(1).getInt("status"));
+        assertEquals(400, report.getJsonArray("results").getJsonObject(2).getInt("status"));
+        assertTrue(report.getJsonArray("results").getJsonObject(2).containsKey("error"));
+    }
+
+    @Test
+    public void testMultiGet() throws Exception {
+        loadEntities("users");
+        List<JsonObject> users = loadObjects("/users.json");
+        Set<JsonObject> expected = users.stream().limit(2).collect(Collectors.toSet());
+        String ids = expected.stream().map(u -> u.getString("userId")).collect(Collectors.joining(",")) + ",nobody";
+        List<JsonObject> actual = new ArrayList<>();
+        readPage(config.getApiUrl() + "/users?ids=" + ids, actual);
+        assertEquals(expected, new HashSet<>(actual));
+    }
+
+    @Test
+    public void testTripExpansion() throws Exception {
+        loadEntities("users", "places", "trips");
+        JsonObject trip = loadObjects("/trips.json").get(0);
+        JsonObject user = loadObjects("/users.json").stream()
+                .filter(u -> u.getString("userId").equals(trip.getString("userId")))
+                .findFirst()
+                .orElseThrow();
+        JsonObject destination = loadObjects("/places.json").stream()
+                .filter(p -> p.getString("placeId").equals(trip.getString("destination")))
+                .findFirst()
+                .orElseThrow();
+        JsonObject expected = Json.createObjectBuilder(trip)
+                .add("userId", user)
+                .add("destination", destination)
+                .build();
+        String tripLocation = config.getApiUrl() + "/trips/" + trip.getString("tripId");
+        assertEntityExists(tripLocation + "?expand=userId,destination", expected);
+        List<JsonObject> listed = new ArrayList<>();
+        readPage(config.getApiUrl() + "/trips?expand=userId", listed);
+        assertFalse(listed.isEmpty());
+        listed.forEach(t -> assertEquals(JsonValue.ValueType.OBJECT, t.get("userId").getValueType()));
+    }
+
+    @Test
+    public void testGraphTraversal() throws Exception {
+        loadEntities("users", "places", "trips");
+        List<JsonObject> trips = loadObjects("/trips.json");
+        String userId = trips.get(0).getString("userId");
+        List<JsonObject> userTrips = trips.stream()
+                .filter(t -> t.getString("userId").equals(userId))
+                .collect(Collectors.toList());
+        String userLocation = config.getApiUrl() + "/users/" + userId;
+
+        Set<String> expectedTrips = userTrips.stream().map(t -> t.getString("tripId")).collect(Collectors.toSet());
+        List<JsonObject> neighbors = readStream(userLocation + "/neighbors");
+        assertEquals(expectedTrips, neighbors.stream().map(n -> n.getString("entityId")).collect(Collectors.toSet()));
+        neighbors.forEach(n -> assertEquals("in", n.getString("direction")));
+
+        Set<String> expectedPlaces = userTrips.stream().map(t -> t.getString("destination")).collect(Collectors.toSet());
+        List<JsonObject> twoHops = new ArrayList<>();
+        readPage(userLocation + "/neighbors?depth=2&edges=userId,destination", twoHops);
+        assertEquals(expectedPlaces, twoHops.stream()
+                .filter(n -> n.getInt("depth") == 2)
+                .map(n -> n.getString("entityId"))
+                .collect(Collectors.toSet()));
+        assertEquals(400, getStatus(userLocation + "/neighbors?edges=purpose"));
+        assertEquals(404, getStatus(config.getApiUrl() + "/users/nobody/neighbors"));
+
+        String placeId = userTrips.get(0).getString("destination");
+        URL url = tryConstructUrl(userLocation + "/path?to=places/" + placeId);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Accept", "application/json");
+        assertEquals(200, connection.getResponseCode());
+        try (JsonReader reader = Json.createReader(connection.getInputStream())) {
+            JsonObject result = reader.readObject();
+            assertEquals(2, result.getInt("length"));
+            JsonArray path = result.getJsonArray("path");
+            assertEquals(userId, path.getJsonObject(0).getString("entityId"));
+            assertEquals("trip", path.getJsonObject(1).getString("entityType"));
+            assertEquals(placeId, path.getJsonObject(2).getString("entityId"));
+        }
+        assertEquals(404, getStatus(userLocation + "/path?to=places/nowhere"));
+        assertEquals(404, getStatus(config.getApiUrl() + "/users/nobody/path?to=users/nobody"));
+
+        //an entity loaded straight into the store carries no version, but it still exists
+        Txn.executeWrite(dataset, () -> dataset.getDefaultModel().add(
+                ResourceFactory.createResource(EntityResourceFactory.getEntityPath("user", "unversioned")),
+                ResourceFactory.createProperty(EntityGraphGateway.NAMESPACE_PREFIX + "name"),
+                "Unversioned"));
+        assertEquals(200, getStatus(config.getApiUrl() + "/users/unversioned/neighbors"));
+        assertEquals(200, getStatus(config.getApiUrl() + "/users/unversioned/path?to=users/unversioned"));
+    }
+
+    @Test
+    public void testEmbeddedStorage() throws Exception {
+        ServerConfig embeddedConfig = new ServerConfig();
+        embeddedConfig.setServerAddress(InetAddress.getLocalHost());
+        embeddedConfig.setServerPort(getRandomAvailablePort());
+        embeddedConfig.setHealthPort(getRandomAvailablePort());
+        embeddedConfig.setDatabaseDirectory(Files.createTempDirectory("tdb2").toString());
+        WebServer embeddedServer = Server.start(embeddedConfig);
+        try {
+            while (!embeddedServer.isRunning()) {
+                Thread.sleep(1000);
+            }
+            JsonObject user = loadObjects("/users.json").get(0);
+            String testLocation = embeddedConfig.getApiUrl() + "/users/" + user.getString("userId");
+            assertEquals(201, createOrUpdateEntity(testLocation, user));
+            assertEntityExists(testLocation, user);
+            deleteEntity(testLocation);
+            assertEntityNotExists(testLocation);
+        } finally {
+            embeddedServer.shutdown()
+                    .toCompletableFuture()
+                    .get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        String databaseDirectory = Files.createTempDirectory("tdb2").toString();
+        String journalDirectory = Files.createTempDirectory("journal").toString();
+        List<JsonObject> trips = loadObjects("/trips.json");
+        try (RunningServer writeBehindServer = startServer(serverConfig -> {
+            serverConfig.setDatabaseDirectory(databaseDirectory);
+            serverConfig.setWriteBehindEntityTypes(Set.of("trip"));
+            serverConfig.setWriteBehindJournalDirectory(journalDirectory);
+        })) {
+            String entityRoot = writeBehindServer.config.getApiUrl() + "/trips";
+            for (JsonObject trip : trips) {
+                assertEquals(202, createEntity(entityRoot, trip));
+            }
+            //a synchronous write to the same entity waits for the accepted create to be flushed
+            JsonObject trip = trips.get(0);
+            assertEquals(200, createOrUpdateEntity(entityRoot + "/" + trip.getString("tripId"), trip));
+        }
+        //the shutdown future completes once the queues have drained
+        assertEquals(0, Files.size(Paths.get(journalDirectory, "trip.journal")));
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        String databaseAddress = InetAddress.getLocalHost().getHostAddress();
+        int databasePort = getRandomAvailablePort();
+        FusekiServer breakerFusekiServer = null;
+        try (RunningServer breakerServer = startServer(serverConfig -> {
+            serverConfig.setDatabaseAddress(databaseAddress);
+            serverConfig.setDatabasePort(databasePort);
+            serverConfig.setCircuitBreakerMinimumCalls(5);
+            serverConfig.setCircuitBreakerOpenMillis(500);
+            serverConfig.setCircuitBreakerHalfOpenCalls(1);
+        })) {
+            ServerConfig breakerConfig = breakerServer.config;
+            //nothing is listening on the database port yet, so reads fail until the circuit opens and then fail fast
+            String entityUrl = breakerConfig.getApiUrl() + "/users/" + UUID.randomUUID();
+            for (int i = 0; i < breakerConfig.getCircuitBreakerMinimumCalls(); i++) {
+                assertEquals(500, getStatus(entityUrl));
+            }
+            HttpURLConnection connection = (HttpURLConnection) tryConstructUrl(entityUrl).openConnection();
+            assertEquals(503, connection.getResponseCode());
+            assertNotNull(connection.getHeaderField("Retry-After"));
+            assertEquals(503, getStatus(breakerConfig.getReadinessUrl()));
+            //once the store is back, the readiness probe is the half-open trial that closes the circuit
+            breakerFusekiServer = FusekiServer.create()
+                    .port(breakerConfig.getDatabasePort())
+                    .add("/dataset", DatasetFactory.createTxnMem())
+                    .build();
+            breakerFusekiServer.start();
+            Thread.sleep(breakerConfig.getCircuitBreakerOpenMillis());
+            assertHealthyOverall(breakerConfig.getReadinessUrl());
+            assertEquals(404, getStatus(entityUrl));
+        } finally {
+            if (breakerFusekiServer != null) {
+                breakerFusekiServer.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testReadReplicas() throws Exception {
+        //the replicas are separate stores that never receive writes, so where a read was served shows in its result
+        List<Dataset> replicaDatasets = List.of(DatasetFactory.createTxnMem(), DatasetFactory.createTxnMem());
+        List<FusekiServer> replicaFusekiServers = new ArrayList<>();
+        List<String> replicaUrls = new ArrayList<>();
+        for (Dataset replicaDataset : replicaDatasets) {
+            int port = getRandomAvailablePort();
+            FusekiServer replicaFusekiServer = FusekiServer.create()
+                    .port(port)
+                    .add("/dataset", replicaDataset)
+                    .build();
+            replicaFusekiServer.start();
+            replicaFusekiServers.add(replicaFusekiServer);
+            replicaUrls.add("http://" + config.getDatabaseAddress() + ":" + port + "/dataset");
+        }
+        try (RunningServer replicaServer = startServer(serverConfig -> {
+            serverConfig.setDatabaseAddress(config.getDatabaseAddress());
+            serverConfig.setDatabasePort(config.getDatabasePort());
+            serverConfig.setDatabaseReplicaUrls(replicaUrls);
+            serverConfig.setReadYourWritesMillis(500);
+            serverConfig.setCachedEntityTypes(Set.of());
+        })) {
+            ServerConfig replicaConfig = replicaServer.config;
+            List<JsonObject> users = loadObjects("/users.json");
+            JsonObject replicatedUser = users.get(0);
+            for (Dataset replicaDataset : replicaDatasets) {
+                DatasetGraphConnectionPool replicaPool = new DatasetGraphConnectionPool(replicaDataset, 1, 1, 1000);
+                new UserGraphGateway(replicaPool).create(replicatedUser.getString("userId"), replicatedUser);
+                replicaPool.close();
+            }
+            String entityRoot = replicaConfig.getApiUrl() + "/users/";
+            assertEntityExists(entityRoot + replicatedUser.getString("userId"), replicatedUser);
+            //the writing client reads back from the primary until the stickiness window has passed, everyone else from the replicas
+            JsonObject writtenUser = users.get(1);
+            String writtenLocation = entityRoot + writtenUser.getString("userId");
+            CookieHandler previousCookieHandler = CookieHandler.getDefault();
+            CookieManager writerCookies = new CookieManager();
+            try {
+                CookieHandler.setDefault(writerCookies);
+                assertEquals(201, createOrUpdateEntity(writtenLocation, writtenUser));
+                assertEntityExists(writtenLocation, writtenUser);
+                CookieHandler.setDefault(null);
+                assertEntityNotExists(writtenLocation);
+                CookieHandler.setDefault(writerCookies);
+                Thread.sleep(replicaConfig.getReadYourWritesMillis());
+                assertEntityNotExists(writtenLocation);
+            } finally {
+                CookieHandler.setDefault(previousCookieHandler);
+            }
+            assertHealthyOverall(replicaConfig.getReadinessUrl());
+        } finally {
+            replicaFusekiServers.forEach(FusekiServer::stop);
+        }
+    }
+
+    @Test
+    public void testRequestTiming() throws Exception {
+        String traceFile = Files.createTempDirectory("traces").resolve("requests.otlp.jsonl").toString();
+        String traceId = UUID.randomUUID().toString().replace("-", "");
+        try (RunningServer timingServer = startServer(serverConfig -> {
+            serverConfig.setDatabaseAddress(config.getDatabaseAddress());
+            serverConfig.setDatabasePort(config.getDatabasePort());
+            serverConfig.setCachedEntityTypes(Set.of());
+            serverConfig.setTraceSampleRate(1.0);
+            serverConfig.setTraceFile(traceFile);
+        })) {
+            JsonObject user = loadObjects("/users.json").get(0);
+            String testLocation = timingServer.config.getApiUrl() + "/users/" + user.getString("userId");
+            assertEquals(201, createOrUpdateEntity(testLocation, user));
+            HttpURLConnection connection = (HttpURLConnection) tryConstructUrl(testLocation).openConnection();
+            connection.setRequestProperty("traceparent", "00-" + traceId + "-00f067aa0ba902b7-01");
+            assertEquals(200, connection.getResponseCode());
+            String serverTiming = connection.getHeaderField("Server-Timing");
+            assertTrue(serverTiming.contains("queue;dur="));
+            assertTrue(serverTiming.contains("db;dur="));
+            assertTrue(serverTiming.contains("serialize;dur="));
+            assertTrue(serverTiming.contains("total;dur="));
+            assertTrue(serverTiming.contains("trace;desc=\"" + traceId + "\""));
+        }
+        //the shutdown future completes once the trace log has been flushed
+        String trace = Files.readAllLines(Paths.get(traceFile)).stream()
+                .filter(line -> line.contains(traceId))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(trace.contains("\"parentSpanId\":\"00f067aa0ba902b7\""));
+        assertTrue(trace.contains("\"name\":\"GET /users/{id}\""));
+        assertTrue(trace.contains("\"name\":\"sparql read\""));
+    }
+
     @Test
     public void testListAllQuery() throws Exception {
         loadEntities("users", "places", "trips");
@@ -145,6 +589,59 @@ public class ServerTest {
         assertFalse(jsonObject.getJsonObject("results").getJsonArray("bindings").isEmpty());
     }
 
+    @Test
+    public void testQueryResultFormats() throws Exception {
+        loadEntities("users");
+        String queryEndpoint = config.getApiUrl() + "/query";
+        String queryString = "SELECT ?s ?name WHERE { ?s <http://cauldron.systems/graph#name> ?name }";
+        int count = loadObjects("/users.json").size();
+        List<String> csv = executeQuery(queryEndpoint, queryString, "text/csv");
+        assertEquals("s,name", csv.get(0));
+        assertEquals(count + 1, csv.size());
+        List<String> tsv = executeQuery(queryEndpoint, queryString, "text/tab-separated-values");
+        assertEquals("?s\t?name", tsv.get(0));
+        List<String> rows = executeQuery(queryEndpoint, queryString, "application/x-ndjson");
+        assertEquals(count, rows.size());
+        try (JsonReader reader = Json.createReader(new StringReader(rows.get(0)))) {
+            assertEquals("literal", reader.readObject().getJsonObject("name").getString("type"));
+        }
+    }
+
+    @Test
+    public void testQueryLimits() throws Exception {
+        String queryEndpoint = config.getApiUrl() + "/query";
+        String queryString = "SELECT ?s ?p ?o WHERE { ?s ?p ?o }";
+        HttpURLConnection connection = postQuery(queryEndpoint, queryString);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(Long.toString(config.getQueryMaxRows()), connection.getHeaderField("X-Row-Limit"));
+        connection = postQuery(queryEndpoint, queryString + " LIMIT 10");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(null, connection.getHeaderField("X-Row-Limit"));
+        connection = postQuery(queryEndpoint + "?timeout=0", queryString);
+        assertEquals(400, connection.getResponseCode());
+    }
+
+    @Test
+    public void testQueryResultCaching() throws Exception {
+        loadEntities("places");
+        String queryEndpoint = config.getApiUrl() + "/query";
+        String queryString = "SELECT ?s WHERE { ?s a <http://cauldron.systems/graph#place> } LIMIT 100";
+        HttpURLConnection connection = postQuery(queryEndpoint, queryString);
+        assertEquals(200, connection.getResponseCode());
+        String entityTag = connection.getHeaderField("ETag");
+        assertNotNull(entityTag);
+        connection = postQuery(queryEndpoint, queryString, entityTag);
+        assertEquals(304, connection.getResponseCode());
+        JsonObject place = Json.createObjectBuilder()
+                .add("placeId", "asgard")
+                .add("name", "Asgard")
+                .build();
+        assertEquals(201, createOrUpdateEntity(config.getApiUrl() + "/places/asgard", place));
+        connection = postQuery(queryEndpoint, queryString, entityTag);
+        assertEquals(200, connection.getResponseCode());
+        assertNotEquals(entityTag, connection.getHeaderField("ETag"));
+    }
+
     @Test
     public void testConnectivityQuery() throws Exception {
         loadEntities("users", "places", "trips");
@@ -160,6 +657,52 @@ public class ServerTest {
     }
 
 
+    private static JsonObject readChangeEvent(String urlString, String lastEventId, String userId, String operation) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) tryConstructUrl(urlString).openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        if (lastEventId != null) {
+            connection.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        connection.setReadTimeout(10000);
+        assertEquals(200, connection.getResponseCode());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("data: ")) {
+                    try (JsonReader jsonReader = Json.createReader(new StringReader(line.substring(6)))) {
+                        JsonObject event = jsonReader.readObject();
+                        if (userId.equals(event.getString("userId", null)) && operation.equals(event.getString("operation", null))) {
+                            return event;
+                        }
+                    }
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return fail("change event not received");
+    }
+
+    private static List<String> readChangeEvents(String urlString, String lastEventId, int count) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) tryConstructUrl(urlString).openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        connection.setRequestProperty("Last-Event-ID", lastEventId);
+        connection.setReadTimeout(10000);
+        assertEquals(200, connection.getResponseCode());
+        List<String> events = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (events.size() < count && (line = reader.readLine()) != null) {
+                if (line.startsWith("id: ") || line.startsWith("event: gap")) {
+                    events.add(line);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return events;
+    }
+
     private void loadEntities(String... resourceNames) {
         for (String resourceName : resourceNames) {
             String entityRoot = config.getApiUrl() + "/" + resourceName;
@@ -261,10 +804,17 @@ public class ServerTest {
     }
 
     public static int createOrUpdateEntity(String urlString, JsonObject object) throws IOException {
+        return createOrUpdateEntity(urlString, object, null);
+    }
+
+    public static int createOrUpdateEntity(String urlString, JsonObject object, String entityTag) throws IOException {
         URL url = tryConstructUrl(urlString);
         byte[] body = object.toString().getBytes(StandardCharsets.UTF_8);
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         connection.setRequestMethod("PUT");
+        if (entityTag != null) {
+            connection.setRequestProperty("If-Match", entityTag);
+        }
         connection.setRequestProperty("Content-Type", "application/json");
         connection.setRequestProperty("Content-Length", Integer.toString(body.length));
         connection.setDoOutput(true);
@@ -288,6 +838,61 @@ public class ServerTest {
         return connection.getResponseCode();
     }
 
+    public static JsonObject loadBatch(String urlString, String contentType, String content) throws IOException {
+        URL url = tryConstructUrl(urlString);
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setRequestProperty("Content-Length", Integer.toString(body.length));
+        connection.setDoOutput(true);
+        try (DataOutputStream dataOutputStream = new DataOutputStream(connection.getOutputStream())) {
+            dataOutputStream.write(body);
+        }
+        assertEquals(200, connection.getResponseCode());
+        try (JsonReader jsonReader = Json.createReader(connection.getInputStream())) {
+            return jsonReader.readObject();
+        }
+    }
+
+    public static List<String> executeQuery(String urlString, String queryString, String accept) throws IOException {
+        URL url = tryConstructUrl(urlString);
+        byte[] body = queryString.getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/sparql-query");
+        connection.setRequestProperty("Accept", accept);
+        connection.setDoOutput(true);
+        try (DataOutputStream dataOutputStream = new DataOutputStream(connection.getOutputStream())) {
+            dataOutputStream.write(body);
+        }
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(accept, connection.getContentType());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    public static HttpURLConnection postQuery(String urlString, String queryString) throws IOException {
+        return postQuery(urlString, queryString, null);
+    }
+
+    public static HttpURLConnection postQuery(String urlString, String queryString, String entityTag) throws IOException {
+        URL url = tryConstructUrl(urlString);
+        byte[] body = queryString.getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/sparql-query");
+        if (entityTag != null) {
+            connection.setRequestProperty("If-None-Match", entityTag);
+        }
+        connection.setDoOutput(true);
+        try (DataOutputStream dataOutputStream = new DataOutputStream(connection.getOutputStream())) {
+            dataOutputStream.write(body);
+        }
+        return connection;
+    }
+
     public static JsonObject executeQuery(String urlString, String queryString) throws IOException {
         URL url = tryConstructUrl(urlString);
         byte[] body = queryString.getBytes(StandardCharsets.UTF_8);
@@ -365,6 +970,57 @@ public class ServerTest {
         }
     }
 
+    public static String readPage(String urlString, List<JsonObject> results) throws IOException {
+        URL url = tryConstructUrl(urlString);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setDoInput(true);
+        if (connection.getResponseCode() == 404) {
+            return null;
+        }
+        assertEquals(200, connection.getResponseCode());
+        try (JsonReader reader = Json.createReader(connection.getInputStream())) {
+            reader.readArray().stream().map(JsonValue::asJsonObject).forEach(results::add);
+        }
+        String link = connection.getHeaderField("Link");
+        if (link == null) {
+            return null;
+        }
+        return link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+    }
+
+    public static List<JsonObject> readStream(String urlString) throws IOException {
+        URL url = tryConstructUrl(urlString);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setRequestProperty("Accept", "application/x-ndjson");
+        connection.setDoInput(true);
+        assertEquals(200, connection.getResponseCode());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return reader.lines()
+                    .map(line -> Json.createReader(new StringReader(line)).readObject())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public static String readMetrics(String urlString) throws IOException {
+        URL url = tryConstructUrl(urlString);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        }
+    }
+
+    public static int getStatus(String urlString) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) tryConstructUrl(urlString).openConnection();
+        connection.setRequestProperty("Accept", "application/json");
+        return connection.getResponseCode();
+    }
+
     public static void deleteEntity(String urlString) throws IOException {
         URL url = tryConstructUrl(urlString);
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
@@ -372,6 +1028,14 @@ public class ServerTest {
         assertEquals(204, connection.getResponseCode());
     }
 
+    public static int deleteEntity(String urlString, String entityTag) throws IOException {
+        URL url = tryConstructUrl(urlString);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("DELETE");
+        connection.setRequestProperty("If-Match", entityTag);
+        return connection.getResponseCode();
+    }
+
     private static URL tryConstructUrl(String urlString) {
         try {
             return new URL(urlString);
@@ -412,4 +1076,22 @@ public class ServerTest {
         }
     }
 
+    private static class RunningServer implements AutoCloseable {
+
+        private final ServerConfig config;
+        private final WebServer webServer;
+
+        private RunningServer(ServerConfig config, WebServer webServer) {
+            this.config = config;
+            this.webServer = webServer;
+        }
+
+        @Override
+        public void close() throws Exception {
+            webServer.shutdown()
+                    .toCompletableFuture()
+                    .get(10, TimeUnit.SECONDS);
+        }
+    }
+
 }